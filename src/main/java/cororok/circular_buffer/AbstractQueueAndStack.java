@@ -1,6 +1,9 @@
 package cororok.circular_buffer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Queue and Stack have common methods, both read data from the first. Queue adds data at the last while Stack does at
@@ -28,6 +31,57 @@ public interface AbstractQueueAndStack extends AutoCloseable {
 	 */
 	byte[] peekFirst() throws IOException;
 
+	/**
+	 * the same as {@link #removeFirst()} but reads data into the given buffer from its position instead of creating a
+	 * new array. If the buffer does not have enough remaining it does not remove it.
+	 * 
+	 * @param dst
+	 * @return length of data or negative required length if the buffer has not enough remaining
+	 * @throws IOException,
+	 *             NoSuchElementException if it is empty
+	 */
+	int removeFirst(ByteBuffer dst) throws IOException;
+
+	/**
+	 * the same as {@link #peekFirst()} but reads data into the given buffer from its position instead of creating a new
+	 * array.
+	 * 
+	 * @param dst
+	 * @return length of data, 0 if it is empty or negative required length if the buffer has not enough remaining
+	 * @throws IOException
+	 */
+	int peekFirst(ByteBuffer dst) throws IOException;
+
+	/**
+	 * Read data and remove them as many as the given max at once.
+	 * 
+	 * @param maxElements
+	 * @return removed data from first, empty if it is empty
+	 * @throws IOException
+	 */
+	List<byte[]> drain(int maxElements) throws IOException;
+
+	/**
+	 * the same as {@link #drain(int)} but adds them into the given collection.
+	 * 
+	 * @param c
+	 * @param maxElements
+	 * @return # of elements it added into the given collection
+	 * @throws IOException
+	 */
+	int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException;
+
+	/**
+	 * Read data and remove them until total length of them reaches the given max. It removes at least one if it is not
+	 * empty even if the first one is bigger than the given max.
+	 * 
+	 * @param maxBytes
+	 *            maximum total length without header
+	 * @return removed data from first, empty if it is empty
+	 * @throws IOException
+	 */
+	List<byte[]> drainBytes(long maxBytes) throws IOException;
+
 	/**
 	 * @return number of elements it has now.
 	 */
@@ -0,0 +1,127 @@
+package cororok.circular_buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A background thread of {@link CircularDiskQueueAndStack#addLastAsync(byte[])}. It takes all the pending futures at
+ * once, calls {@link CircularDiskQueueAndStack#sync()} only once for all of them and completes them so many producers
+ * share a single fsync.
+ *
+ * It also syncs a queue of {@link Durability#groupCommit(int, long)} which has become idle before maxDelayMillis, see
+ * {@link #flushLater(long)}.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+class AsyncCommitter extends Thread {
+
+	private final CircularDiskQueueAndStack queue;
+	private List<CompletableFuture<Void>> pending = new ArrayList<>();
+	private boolean closed;
+
+	/**
+	 * when it should call {@link CircularDiskQueueAndStack#syncIfDue()}, 0 if nothing to flush
+	 */
+	private long flushAt;
+
+	AsyncCommitter(CircularDiskQueueAndStack queue) {
+		super("circular-disk-committer");
+		setDaemon(true);
+		this.queue = queue;
+	}
+
+	/**
+	 * the data of the future should be written already.
+	 *
+	 * @param future
+	 */
+	synchronized void add(CompletableFuture<Void> future) {
+		if (closed) {
+			future.completeExceptionally(new IllegalStateException("closed"));
+			return;
+		}
+
+		pending.add(future);
+		notifyAll();
+	}
+
+	/**
+	 * asks it to call {@link CircularDiskQueueAndStack#syncIfDue()} at the given time unless it has an earlier one.
+	 *
+	 * @param at
+	 *            time in millis
+	 */
+	synchronized void flushLater(long at) {
+		if (flushAt == 0 || at < flushAt) {
+			flushAt = at;
+			notifyAll();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			List<CompletableFuture<Void>> futures;
+			boolean flush = false;
+			synchronized (this) {
+				while (pending.isEmpty() && closed == false) {
+					long now = System.currentTimeMillis();
+					if (flushAt > 0 && now >= flushAt) {
+						flushAt = 0;
+						flush = true;
+						break;
+					}
+
+					try {
+						wait(flushAt > 0 ? flushAt - now : 0);
+					} catch (InterruptedException e) {
+						closed = true;
+					}
+				}
+				if (pending.isEmpty() && flush == false)
+					return; // closed, close() syncs the rest
+
+				futures = pending;
+				pending = new ArrayList<>();
+			}
+
+			if (futures.isEmpty()) {
+				flush();
+				continue;
+			}
+
+			try {
+				synchronized (queue) {
+					queue.sync();
+				}
+				for (CompletableFuture<Void> future : futures)
+					future.complete(null);
+			} catch (Throwable e) {
+				for (CompletableFuture<Void> future : futures)
+					future.completeExceptionally(e);
+			}
+		}
+	}
+
+	private void flush() {
+		try {
+			queue.syncIfDue();
+		} catch (Throwable e) {
+			// the next add/remove or sync throws it again
+		}
+	}
+
+	/**
+	 * syncs the pending futures and stops the thread.
+	 *
+	 * @throws InterruptedException
+	 */
+	void close() throws InterruptedException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		join();
+	}
+}
@@ -0,0 +1,311 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe wrapper of a {@link Queue} like {@link CircularDiskQueueAndStack} or {@link CircularDiskDeque} which
+ * waits instead of throwing NoSuchElementException when it is empty or IOException when it is full, like
+ * BlockingQueue. Every call takes a single lock so the wrapped queue does not need to be thread safe. Consumers wait on
+ * notEmpty which add signals and producers wait on notFull which remove signals so nothing spins.
+ *
+ * Because elements have different lengths removing one does not mean a waiting producer has enough space now, so
+ * remove wakes up all the producers and each of them checks its own length.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class BlockingDiskQueue implements Queue {
+
+	final Queue queue;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	public BlockingDiskQueue(Queue queue) {
+		this.queue = queue;
+	}
+
+	/**
+	 * adds it at the last, waiting until it has enough space.
+	 *
+	 * @param bs
+	 * @throws IOException
+	 *             if it can not have the given data even when it is empty
+	 * @throws InterruptedException
+	 */
+	public void put(byte[] bs) throws IOException, InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (hasSpace(bs) == false)
+				notFull.await();
+			addLastAndSignal(bs);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * the same as {@link #put(byte[])} but waits only up to the given time.
+	 *
+	 * @param bs
+	 * @param timeout
+	 * @param unit
+	 * @return false if it was still full after the given time
+	 * @throws IOException
+	 *             if it can not have the given data even when it is empty
+	 * @throws InterruptedException
+	 */
+	public boolean offer(byte[] bs, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (hasSpace(bs) == false) {
+				if (nanos <= 0)
+					return false;
+				nanos = notFull.awaitNanos(nanos);
+			}
+			addLastAndSignal(bs);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * removes the first one, waiting until it is not empty.
+	 *
+	 * @return data
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public byte[] take() throws IOException, InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (queue.size() == 0)
+				notEmpty.await();
+			return removeFirstAndSignal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * the same as {@link #take()} but waits only up to the given time.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return data or null if it was still empty after the given time
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public byte[] poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (queue.size() == 0) {
+				if (nanos <= 0)
+					return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return removeFirstAndSignal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * it never waits if it is empty because then it would wait forever.
+	 */
+	private boolean hasSpace(byte[] bs) throws IOException {
+		if (bs == null || bs.length == 0)
+			throw new RuntimeException("empty input data");
+
+		if (queue.getAvailableSpace() >= bs.length)
+			return true;
+		if (queue.size() == 0)
+			throw new IOException("no more sapce");
+		return false;
+	}
+
+	private void addLastAndSignal(byte[] bs) throws IOException {
+		queue.addLast(bs);
+		notEmpty.signal();
+	}
+
+	private byte[] removeFirstAndSignal() throws IOException {
+		byte[] result = queue.removeFirst();
+		if (queue.size() > 0)
+			notEmpty.signal(); // in case more were added while a consumer was waking up
+		notFull.signalAll();
+		return result;
+	}
+
+	@Override
+	public void addLast(byte[] bs) throws IOException {
+		lock.lock();
+		try {
+			addLastAndSignal(bs);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void addLastBatch(List<byte[]> list) throws IOException {
+		lock.lock();
+		try {
+			queue.addLastBatch(list);
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public byte[] removeFirst() throws IOException {
+		lock.lock();
+		try {
+			return removeFirstAndSignal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int removeFirst(ByteBuffer dst) throws IOException {
+		lock.lock();
+		try {
+			int result = queue.removeFirst(dst);
+			if (result > 0)
+				notFull.signalAll();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public byte[] peekFirst() throws IOException {
+		lock.lock();
+		try {
+			return queue.peekFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int peekFirst(ByteBuffer dst) throws IOException {
+		lock.lock();
+		try {
+			return queue.peekFirst(dst);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<byte[]> drain(int maxElements) throws IOException {
+		lock.lock();
+		try {
+			List<byte[]> result = queue.drain(maxElements);
+			if (result.isEmpty() == false)
+				notFull.signalAll();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException {
+		lock.lock();
+		try {
+			int result = queue.drainTo(c, maxElements);
+			if (result > 0)
+				notFull.signalAll();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<byte[]> drainBytes(long maxBytes) throws IOException {
+		lock.lock();
+		try {
+			List<byte[]> result = queue.drainBytes(maxBytes);
+			if (result.isEmpty() == false)
+				notFull.signalAll();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long size() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long length() {
+		lock.lock();
+		try {
+			return queue.length();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long lengthOfStorage() {
+		lock.lock();
+		try {
+			return queue.lengthOfStorage();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getAvailableTotalSpace() {
+		lock.lock();
+		try {
+			return queue.getAvailableTotalSpace();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getAvailableSpace() {
+		lock.lock();
+		try {
+			return queue.getAvailableSpace();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws Exception {
+		lock.lock();
+		try {
+			queue.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
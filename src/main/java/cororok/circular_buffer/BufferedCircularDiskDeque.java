@@ -0,0 +1,123 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A hybrid deque which has memory at both ends of the disk, see {@link BufferedCircularDiskQueue}. The head keeps the
+ * first ones and the tail keeps the last ones so data added and removed at either end does not touch the disk. When
+ * an end is full it moves its inner most ones, the ones next to the disk, to the disk so the disk grows from the
+ * middle outward and the ones at the ends stay in memory.
+ *
+ * removeLast reads the disk one by one because the disk can not read many of them from the last at once.
+ *
+ * @author songduk.park cororok@gmail.com
+ *
+ */
+public class BufferedCircularDiskDeque extends BufferedCircularDiskQueue implements Deque {
+
+	final CircularDiskDeque deque;
+
+	/**
+	 * @param deque
+	 * @param maxMemory
+	 *            maximum total length, not size it can hold data in the memory. Half of it is for the head and the
+	 *            other half is for the tail.
+	 */
+	public BufferedCircularDiskDeque(CircularDiskDeque deque, long maxMemory) {
+		this(deque, maxMemory / 2, maxMemory - maxMemory / 2);
+	}
+
+	/**
+	 * @param deque
+	 * @param maxHeadMemory
+	 *            maximum total length of the first ones
+	 * @param maxTailMemory
+	 *            maximum total length of the last ones
+	 */
+	public BufferedCircularDiskDeque(CircularDiskDeque deque, long maxHeadMemory, long maxTailMemory) {
+		super(deque, maxHeadMemory, maxTailMemory);
+		this.deque = deque;
+	}
+
+	@Override
+	public void addFirst(byte[] bs) throws IOException {
+		checkSpace(bs);
+		moveHeadToDisk(maxHeadMemory - bs.length);
+
+		head.addFirst(bs);
+		headLength += bs.length;
+	}
+
+	/*
+	 * all or nothing like addLastBatch, the oldest ones of the list which do not fit in the head go to the disk at
+	 * once.
+	 */
+	@Override
+	public void addFirstBatch(List<byte[]> list) throws IOException {
+		checkSpace(list);
+		long total = 0;
+		for (byte[] bs : list)
+			total += bs.length;
+		if (list.isEmpty())
+			return;
+
+		moveHeadToDisk(Math.max(0, maxHeadMemory - total));
+		int toDisk = 0;
+		while (total > maxHeadMemory)
+			total -= list.get(toDisk++).length;
+		if (toDisk > 0)
+			deque.addFirstBatch(list.subList(0, toDisk));
+
+		for (byte[] bs : list.subList(toDisk, list.size())) {
+			head.addFirst(bs);
+			headLength += bs.length;
+		}
+	}
+
+	private void moveHeadToDisk(final long minimumRequiredLength) throws IOException {
+		while (minimumRequiredLength < headLength) {
+			byte[] data = head.peekLast(); // next to the disk
+			deque.addFirst(data);
+			head.removeLast();
+
+			headLength -= data.length;
+		}
+	}
+
+	private byte[] removeLast(ArrayDeque<byte[]> tier) {
+		byte[] data = tier.removeLast();
+		if (tier == head)
+			headLength -= data.length;
+		else
+			tailLength -= data.length;
+		return data;
+	}
+
+	@Override
+	public byte[] removeLast() throws IOException {
+		if (tail.size() > 0)
+			return removeLast(tail);
+
+		if (deque.size > 0)
+			return deque.removeLast();
+
+		if (head.size() > 0)
+			return removeLast(head);
+
+		throw new NoSuchElementException();
+	}
+
+	@Override
+	public byte[] peekLast() throws IOException {
+		if (tail.size() > 0)
+			return tail.peekLast();
+
+		if (deque.size > 0)
+			return deque.peekLast();
+
+		return head.peekLast();
+	}
+}
@@ -0,0 +1,325 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A hybrid queue which uses Memory and Disk together like {@link BufferedCircularDiskStack}. Data is kept in 3 tiers,
+ * from the oldest
+ * <ul>
+ * <li>head: in memory, read from the disk ahead of removeFirst</li>
+ * <li>disk: the given CircularDiskQueueAndStack</li>
+ * <li>tail: in memory, newly added data</li>
+ * </ul>
+ * New data stays in the tail and moves to the disk only when the tail is full, which happens when producers get ahead
+ * of the consumer. If the head and the disk are empty removeFirst returns the tail directly so when the consumer keeps
+ * up data never touches the disk. When the head is empty and the disk is not it reads as much as the head can hold at
+ * once.
+ *
+ * All the data in memory is moved to the disk when it is closed, the head at the first and the tail at the last, and if
+ * there is not enough space in the disk to save all the current data in the memory it will not add data any more even
+ * if the memory has some free space.
+ *
+ * @author songduk.park cororok@gmail.com
+ *
+ */
+public class BufferedCircularDiskQueue implements Queue {
+
+	final ArrayDeque<byte[]> head;
+	final ArrayDeque<byte[]> tail;
+	CircularDiskQueueAndStack queue;
+	final long maxHeadMemory;
+	final long maxTailMemory;
+	final int headerSize;
+
+	/**
+	 * current total length of all input data without additional headers in head and tail.
+	 */
+	protected long headLength;
+	protected long tailLength;
+
+	/**
+	 * @param queue
+	 * @param maxMemory
+	 *            maximum total length, not size it can hold data in the memory. Half of it is for the head and the
+	 *            other half is for the tail.
+	 */
+	public BufferedCircularDiskQueue(CircularDiskQueueAndStack queue, long maxMemory) {
+		this(queue, maxMemory / 2, maxMemory - maxMemory / 2);
+	}
+
+	/**
+	 * @param queue
+	 * @param maxHeadMemory
+	 *            maximum total length it reads from the disk at once
+	 * @param maxTailMemory
+	 *            maximum total length of new data before it moves them to the disk
+	 */
+	public BufferedCircularDiskQueue(CircularDiskQueueAndStack queue, long maxHeadMemory, long maxTailMemory) {
+		this.queue = queue;
+		this.headerSize = queue.getHeaderSize();
+		this.maxHeadMemory = maxHeadMemory;
+		this.maxTailMemory = maxTailMemory;
+		this.head = BufferedCircularDiskStack.newMemory(maxHeadMemory);
+		this.tail = BufferedCircularDiskStack.newMemory(maxTailMemory);
+	}
+
+	@Override
+	public void addLast(byte[] bs) throws IOException {
+		checkSpace(bs);
+		moveToDisk(maxTailMemory - bs.length);
+
+		tail.addLast(bs);
+		tailLength += bs.length;
+	}
+
+	/*
+	 * all or nothing like BufferedCircularDiskStack.addFirstBatch, it makes room in the tail before it adds the first
+	 * one and the oldest ones of the list which do not fit in the tail go to the disk at once.
+	 */
+	@Override
+	public void addLastBatch(List<byte[]> list) throws IOException {
+		checkSpace(list);
+		long total = 0;
+		for (byte[] bs : list)
+			total += bs.length;
+		if (list.isEmpty())
+			return;
+
+		moveToDisk(Math.max(0, maxTailMemory - total));
+		int toDisk = 0;
+		while (total > maxTailMemory)
+			total -= list.get(toDisk++).length;
+		if (toDisk > 0)
+			queue.addLastBatch(list.subList(0, toDisk));
+
+		for (byte[] bs : list.subList(toDisk, list.size())) {
+			tail.addLast(bs);
+			tailLength += bs.length;
+		}
+	}
+
+	/**
+	 * the disk should be able to save all data in memory when it closes.
+	 *
+	 * @param bs
+	 * @throws IOException
+	 *             if the disk has not enough space
+	 */
+	void checkSpace(byte[] bs) throws IOException {
+		if (bs == null || bs.length == 0)
+			throw new RuntimeException("empty input data");
+
+		if (queue.canAddWithHeader(memoryLengthOfStorage() + bs.length + headerSize) == false)
+			throw new IOException("no more sapce");
+	}
+
+	void checkSpace(List<byte[]> list) throws IOException {
+		long requiredLenght = 0;
+		for (byte[] bs : list) {
+			if (bs == null || bs.length == 0)
+				throw new RuntimeException("empty input data");
+			requiredLenght += bs.length + headerSize;
+		}
+
+		if (queue.canAddWithHeader(memoryLengthOfStorage() + requiredLenght) == false)
+			throw new IOException("no more sapce");
+	}
+
+	private void moveToDisk(final long minimumRequiredLength) throws IOException {
+		while (minimumRequiredLength < tailLength) {
+			byte[] data = tail.peekFirst(); // the oldest one
+			queue.addLast(data);
+			tail.removeFirst();
+
+			tailLength -= data.length;
+		}
+	}
+
+	/**
+	 * @return the tier which has the first one now, null if it is empty
+	 * @throws IOException
+	 */
+	private ArrayDeque<byte[]> first() throws IOException {
+		if (head.size() > 0)
+			return head;
+
+		if (queue.size > 0) {
+			for (byte[] data : queue.drainBytes(maxHeadMemory)) {
+				head.addLast(data);
+				headLength += data.length;
+			}
+			return head;
+		}
+
+		if (tail.size() > 0)
+			return tail;
+
+		return null;
+	}
+
+	private byte[] removeFirst(ArrayDeque<byte[]> tier) {
+		byte[] data = tier.removeFirst();
+		if (tier == head)
+			headLength -= data.length;
+		else
+			tailLength -= data.length;
+		return data;
+	}
+
+	@Override
+	public byte[] removeFirst() throws IOException {
+		ArrayDeque<byte[]> tier = first();
+		if (tier == null)
+			throw new NoSuchElementException();
+
+		return removeFirst(tier);
+	}
+
+	@Override
+	public int removeFirst(ByteBuffer dst) throws IOException {
+		ArrayDeque<byte[]> tier = first();
+		if (tier == null)
+			throw new NoSuchElementException();
+
+		int length = tier.peekFirst().length;
+		if (dst.remaining() < length)
+			return -length;
+
+		dst.put(removeFirst(tier));
+		return length;
+	}
+
+	@Override
+	public byte[] peekFirst() throws IOException {
+		ArrayDeque<byte[]> tier = first();
+		if (tier == null)
+			return null;
+
+		return tier.peekFirst();
+	}
+
+	@Override
+	public int peekFirst(ByteBuffer dst) throws IOException {
+		ArrayDeque<byte[]> tier = first();
+		if (tier == null)
+			return 0;
+
+		byte[] data = tier.peekFirst();
+		if (dst.remaining() < data.length)
+			return -data.length;
+
+		dst.put(data);
+		return data.length;
+	}
+
+	@Override
+	public List<byte[]> drain(int maxElements) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, maxElements);
+		return result;
+	}
+
+	/*
+	 * reads the disk directly instead of through the head.
+	 */
+	@Override
+	public int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException {
+		int count = 0;
+		while (count < maxElements && head.size() > 0) {
+			c.add(removeFirst(head));
+			++count;
+		}
+
+		if (count < maxElements && queue.size > 0)
+			count += queue.drainTo(c, maxElements - count);
+
+		while (count < maxElements && queue.size == 0 && tail.size() > 0) {
+			c.add(removeFirst(tail));
+			++count;
+		}
+		return count;
+	}
+
+	/*
+	 * it only returns data of a single tier.
+	 */
+	@Override
+	public List<byte[]> drainBytes(long maxBytes) throws IOException {
+		if (head.size() == 0 && queue.size > 0)
+			return queue.drainBytes(maxBytes);
+
+		List<byte[]> result = new ArrayList<>();
+		ArrayDeque<byte[]> tier = head.size() > 0 ? head : tail;
+		long removedLength = 0;
+		while (tier.size() > 0) {
+			long newLength = removedLength + tier.peekFirst().length;
+			if (newLength > maxBytes && result.isEmpty() == false)
+				break;
+
+			result.add(removeFirst(tier));
+			removedLength = newLength;
+		}
+		return result;
+	}
+
+	private long memoryLengthOfStorage() {
+		return headLength + tailLength + (long) (head.size() + tail.size()) * headerSize;
+	}
+
+	@Override
+	public long size() {
+		return head.size() + queue.size + tail.size();
+	}
+
+	@Override
+	public long length() {
+		return headLength + queue.length() + tailLength;
+	}
+
+	@Override
+	public long lengthOfStorage() {
+		return queue.lengthOfStorage() + memoryLengthOfStorage();
+	}
+
+	/*
+	 * the disk keeps space for all data in memory
+	 */
+	@Override
+	public long getAvailableTotalSpace() {
+		return queue.getAvailableTotalSpace() - memoryLengthOfStorage();
+	}
+
+	@Override
+	public long getAvailableSpace() {
+		return getAvailableTotalSpace() - headerSize;
+	}
+
+	/*
+	 * save all data to the disk first then closes the disk
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() throws Exception {
+		while (head.size() > 0) {
+			byte[] data = head.removeLast(); // the newest one of the head goes first
+			queue.addFirst(data);
+		}
+		while (tail.size() > 0) {
+			byte[] data = tail.removeFirst();
+			queue.addLast(data);
+		}
+		queue.close();
+	}
+
+	public int getHeaderSize() {
+		return headerSize;
+	}
+
+}
@@ -1,24 +1,50 @@
 package cororok.circular_buffer;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * A hybrid stack which uses Memory and Disk together. Because the remove operation of stack returns the newest one not
  * the oldest one those new ones don't even have to go to the disk if the remove is requested very soon.
- * 
+ *
  * All the data in memory is moved to the disk when it is closed and if there is not enough space in the disk to save
  * all the current data in the memory it will not add data any more even if the memory has some free space.
- * 
+ *
+ * By default addFirst moves the oldest ones to the disk by itself when memory is full. With
+ * {@link #BufferedCircularDiskStack(CircularDiskQueueAndStack, long, long)} a background thread, {@link DiskSpiller},
+ * moves them instead so addFirst does not wait for the disk until memory reaches the hard limit. While the spiller
+ * writes the oldest ones they stay in memory, a remove which needs them waits until they are in the disk.
+ *
  * @author songduk.park cororok@gmail.com
  *
  */
 public class BufferedCircularDiskStack implements Stack {
 
-	LinkedList<byte[]> memory = new LinkedList<>();
+	/**
+	 * initial number of elements memory can hold without growing, it is smaller if maxMemory is smaller.
+	 */
+	static final int INITIAL_MEMORY_SIZE = 1024;
+
+	/**
+	 * maximum total length the spiller writes at once.
+	 */
+	static final int SPILL_SIZE = 1024 * 1024;
+
+	/**
+	 * a ring of references instead of linked nodes so push and pop do not allocate. It grows only when it is full and
+	 * keeps its array after moving data to the disk.
+	 */
+	final ArrayDeque<byte[]> memory;
 	CircularDiskQueueAndStack stack;
 	final long maxMemory;
+	final long hardMaxMemory;
 	final int headerSize;
 
 	/**
@@ -32,62 +58,356 @@ public class BufferedCircularDiskStack implements Stack {
 	 */
 	protected long lengthOfStorage;
 
+	// all the others are guarded by this
+	private final DiskSpiller spiller;
+	private final Object diskLock = new Object(); // the spiller holds it while it writes the disk without this
+	private int spilling; // # of the oldest ones in memory the spiller is writing
+	private long diskAvailable; // so it does not read the disk while the spiller writes
+	private boolean closed;
+	private Throwable spillError;
+
 	/**
 	 * @param stack
 	 * @param maxMemory
 	 *            maximum total length, not size it can hold data in the memory.
 	 */
 	public BufferedCircularDiskStack(CircularDiskQueueAndStack stack, long maxMemory) {
+		this(stack, maxMemory, maxMemory, false);
+	}
+
+	/**
+	 * moves the oldest ones to the disk in a background thread.
+	 *
+	 * @param stack
+	 * @param maxMemory
+	 *            the background thread starts to move the oldest ones when memory has more than this
+	 * @param hardMaxMemory
+	 *            addFirst waits for the background thread if memory would have more than this. A single data bigger
+	 *            than hardMaxMemory - maxMemory can go over it.
+	 */
+	public BufferedCircularDiskStack(CircularDiskQueueAndStack stack, long maxMemory, long hardMaxMemory) {
+		this(stack, maxMemory, hardMaxMemory, true);
+	}
+
+	private BufferedCircularDiskStack(CircularDiskQueueAndStack stack, long maxMemory, long hardMaxMemory,
+			boolean async) {
+		if (hardMaxMemory < maxMemory)
+			throw new IllegalArgumentException("hardMaxMemory " + hardMaxMemory + " < maxMemory " + maxMemory);
+
 		this.stack = stack;
 		this.headerSize = stack.getHeaderSize();
 		this.maxMemory = maxMemory;
+		this.hardMaxMemory = hardMaxMemory;
+		this.memory = newMemory(hardMaxMemory);
+		this.diskAvailable = stack.getAvailableTotalSpace();
+
+		if (async) {
+			spiller = new DiskSpiller(this);
+			spiller.start();
+		} else {
+			spiller = null;
+		}
+	}
+
+	/**
+	 * @param maxMemory
+	 * @return an empty ring which does not have to grow for small maxMemory
+	 */
+	static ArrayDeque<byte[]> newMemory(long maxMemory) {
+		return new ArrayDeque<>((int) Math.max(1, Math.min(maxMemory, INITIAL_MEMORY_SIZE)));
 	}
 
 	@Override
-	public void addFirst(byte[] bs) throws IOException {
+	public synchronized void addFirst(byte[] bs) throws IOException {
 		long requiredLenght = bs.length + headerSize;
-		long lengthOfStorageNew = lengthOfStorage + requiredLenght;
+		checkDiskSpace(requiredLenght);
 
-		if (stack.canAddWithHeader(lengthOfStorageNew) == false)
-			throw new RuntimeException("Not enough space in the disk to add it");
-
-		final long minimumRequiredLength = maxMemory - bs.length;
-		moveToDisk(minimumRequiredLength);
+		if (spiller == null) {
+			final long minimumRequiredLength = maxMemory - bs.length;
+			moveToDisk(minimumRequiredLength);
+		} else {
+			waitForSpiller(hardMaxMemory - bs.length);
+			checkDiskSpace(requiredLenght); // others could add while it waited
+		}
 
 		memory.addFirst(bs);
 		this.length += bs.length;
 		this.lengthOfStorage += requiredLenght;
+
+		if (spiller != null && length > maxMemory)
+			notifyAll();
+	}
+
+	/*
+	 * all or nothing, it makes room for all of them before it adds the first one so nothing fails after that. Without
+	 * the spiller the oldest ones of the list which do not fit in memory go to the disk at once.
+	 */
+	@Override
+	public synchronized void addFirstBatch(List<byte[]> list) throws IOException {
+		long total = 0;
+		long requiredLenght = 0;
+		for (byte[] bs : list) {
+			if (bs == null || bs.length == 0)
+				throw new RuntimeException("empty input data");
+			total += bs.length;
+			requiredLenght += bs.length + headerSize;
+		}
+		if (list.isEmpty())
+			return;
+
+		checkDiskSpace(requiredLenght);
+
+		int toDisk = 0;
+		if (spiller == null) {
+			moveToDisk(Math.max(0, maxMemory - total));
+			while (total > maxMemory)
+				total -= list.get(toDisk++).length;
+			if (toDisk > 0) {
+				stack.addFirstBatch(list.subList(0, toDisk));
+				diskAvailable = stack.getAvailableTotalSpace();
+			}
+		} else {
+			waitForSpiller(hardMaxMemory - total);
+			checkDiskSpace(requiredLenght); // others could add while it waited
+		}
+
+		for (byte[] bs : list.subList(toDisk, list.size())) {
+			memory.addFirst(bs);
+			this.length += bs.length;
+			this.lengthOfStorage += bs.length + headerSize;
+		}
+
+		if (spiller != null && length > maxMemory)
+			notifyAll();
+	}
+
+	private void checkDiskSpace(long requiredLenght) {
+		if (lengthOfStorage + requiredLenght > diskAvailable)
+			throw new RuntimeException("Not enough space in the disk to add it");
 	}
 
 	private void moveToDisk(final long minimumRequiredLength) throws IOException {
 		while (minimumRequiredLength < length) {
-			byte[] data = memory.removeLast(); // the oldest one, not first
+			byte[] data = memory.peekLast(); // the oldest one, not first
 			stack.addFirst(data);
+			memory.removeLast(); // after it is in the disk
 
 			length -= data.length;
 			lengthOfStorage = lengthOfStorage - data.length - headerSize;
 		}
+		diskAvailable = stack.getAvailableTotalSpace();
+	}
+
+	/*
+	 * the producer waits until the spiller moves the oldest ones. It does not wait below maxMemory because the spiller
+	 * stops there.
+	 */
+	private void waitForSpiller(final long minimumRequiredLength) throws IOException {
+		while (minimumRequiredLength < length && maxMemory < length) {
+			if (closed)
+				throw new IllegalStateException("closed");
+			if (spillError != null)
+				throw new IOException("failed to move data to the disk", spillError);
+
+			await();
+		}
+	}
+
+	/*
+	 * the consumer waits if memory has only the ones the spiller is writing, they will be the first ones of the disk.
+	 */
+	private void waitForSpilling() throws IOException {
+		while (spilling > 0 && memory.size() == spilling)
+			await();
+	}
+
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * the spiller waits until memory has more than maxMemory.
+	 *
+	 * @return the oldest ones to move from the oldest, null if it is closed
+	 * @throws InterruptedException
+	 */
+	synchronized List<byte[]> nextSpill() throws InterruptedException {
+		while (length <= maxMemory && closed == false)
+			wait();
+		if (closed)
+			return null; // close moves the rest
+
+		List<byte[]> list = new ArrayList<>();
+		long remaining = length;
+		long spillLength = 0;
+		Iterator<byte[]> oldest = memory.descendingIterator();
+		while (remaining > maxMemory && spillLength < SPILL_SIZE) {
+			byte[] data = oldest.next();
+			list.add(data);
+			remaining -= data.length;
+			spillLength += data.length;
+		}
+		spilling = list.size();
+		return list;
+	}
+
+	/**
+	 * the spiller writes them to the disk then removes them from memory. Removes and adds do not change the oldest
+	 * ones in memory while it writes.
+	 *
+	 * @param list
+	 *            from {@link #nextSpill()}
+	 * @return false if it failed
+	 */
+	boolean spill(List<byte[]> list) {
+		synchronized (diskLock) {
+			Throwable error = null;
+			try {
+				stack.addFirstBatch(list); // the last one of the list, the newest, becomes the first
+			} catch (Throwable e) {
+				error = e;
+			}
+
+			synchronized (this) {
+				spilling = 0;
+				if (error == null) {
+					for (int i = 0; i < list.size(); i++) {
+						byte[] data = memory.removeLast();
+						length -= data.length;
+						lengthOfStorage = lengthOfStorage - data.length - headerSize;
+					}
+					diskAvailable = stack.getAvailableTotalSpace();
+				} else {
+					spillError = error;
+				}
+				notifyAll();
+			}
+			return error == null;
+		}
+	}
+
+	private byte[] removeMemoryFirst() {
+		byte[] data = memory.removeFirst();
+
+		this.length -= data.length;
+		this.lengthOfStorage = lengthOfStorage - data.length - headerSize;
+
+		return data;
 	}
 
 	@Override
-	public byte[] removeFirst() throws IOException {
+	public synchronized byte[] removeFirst() throws IOException {
+		waitForSpilling();
+		if (memory.size() > 0)
+			return removeMemoryFirst();
+
+		if (stack.size > 0) {
+			byte[] data = stack.removeFirst();
+			diskAvailable = stack.getAvailableTotalSpace();
+			return data;
+		}
+
+		throw new NoSuchElementException();
+	}
+
+	@Override
+	public synchronized int removeFirst(ByteBuffer dst) throws IOException {
+		waitForSpilling();
 		if (memory.size() > 0) {
-			byte[] data = memory.removeFirst();
+			int length = memory.peekFirst().length;
+			if (dst.remaining() < length)
+				return -length;
 
-			this.length -= data.length;
-			this.lengthOfStorage = lengthOfStorage - data.length - headerSize;
+			dst.put(removeMemoryFirst());
+			return length;
+		}
 
-			return data;
+		if (stack.size > 0) {
+			int length = stack.removeFirst(dst);
+			diskAvailable = stack.getAvailableTotalSpace();
+			return length;
+		}
+
+		throw new NoSuchElementException();
+	}
+
+	@Override
+	public synchronized int peekFirst(ByteBuffer dst) throws IOException {
+		waitForSpilling();
+		if (memory.size() > 0) {
+			byte[] data = memory.peekFirst();
+			if (dst.remaining() < data.length)
+				return -data.length;
+
+			dst.put(data);
+			return data.length;
 		}
 
 		if (stack.size > 0)
-			return stack.removeFirst();
+			return stack.peekFirst(dst);
 
-		throw new NoSuchElementException();
+		return 0;
+	}
+
+	@Override
+	public List<byte[]> drain(int maxElements) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, maxElements);
+		return result;
+	}
+
+	@Override
+	public synchronized int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException {
+		int count = 0;
+		while (count < maxElements) {
+			waitForSpilling();
+			if (memory.size() == 0)
+				break;
+
+			c.add(removeMemoryFirst());
+			++count;
+		}
+
+		if (count < maxElements && stack.size > 0) {
+			count += stack.drainTo(c, maxElements - count);
+			diskAvailable = stack.getAvailableTotalSpace();
+		}
+		return count;
+	}
+
+	/*
+	 * if memory has data it only returns data in memory.
+	 */
+	@Override
+	public synchronized List<byte[]> drainBytes(long maxBytes) throws IOException {
+		waitForSpilling();
+		if (memory.size() == 0) {
+			List<byte[]> result = stack.drainBytes(maxBytes);
+			diskAvailable = stack.getAvailableTotalSpace();
+			return result;
+		}
+
+		List<byte[]> result = new ArrayList<>();
+		long removedLength = 0;
+		while (memory.size() > spilling) {
+			long newLength = removedLength + memory.peekFirst().length;
+			if (newLength > maxBytes && result.isEmpty() == false)
+				break;
+
+			result.add(removeMemoryFirst());
+			removedLength = newLength;
+		}
+		return result;
 	}
 
 	@Override
-	public byte[] peekFirst() throws IOException {
+	public synchronized byte[] peekFirst() throws IOException {
+		waitForSpilling();
 		if (memory.size() > 0)
 			return memory.peekFirst();
 
@@ -97,44 +417,69 @@ public class BufferedCircularDiskStack implements Stack {
 		return null;
 	}
 
+	/*
+	 * the disk and memory are read together when the spiller is not writing.
+	 */
 	@Override
 	public long size() {
-		return stack.size + memory.size();
+		synchronized (diskLock) {
+			synchronized (this) {
+				return stack.size + memory.size();
+			}
+		}
 	}
 
 	@Override
 	public long length() {
-		return stack.length() + length;
+		synchronized (diskLock) {
+			synchronized (this) {
+				return stack.length() + length;
+			}
+		}
 	}
 
 	@Override
 	public long lengthOfStorage() {
-		return stack.lengthOfStorage() + lengthOfStorage;
+		synchronized (diskLock) {
+			synchronized (this) {
+				return stack.lengthOfStorage() + lengthOfStorage;
+			}
+		}
 	}
 
 	/*
 	 * Even if memory has some free space it only adds data as much as the disk can
 	 */
 	@Override
-	public long getAvailableTotalSpace() {
-		return stack.getAvailableTotalSpace();
+	public synchronized long getAvailableTotalSpace() {
+		return diskAvailable;
 	}
 
 	@Override
 	public long getAvailableSpace() {
-		return stack.getAvailableSpace();
+		return getAvailableTotalSpace() - headerSize;
 	}
 
 	/*
-	 * save all data to the disk first then closes the disk
-	 * 
+	 * stops the spiller, save all data to the disk first then closes the disk
+	 *
 	 * @see java.lang.AutoCloseable#close()
 	 */
 	@Override
 	public void close() throws Exception {
-		while (memory.size() > 0) {
-			byte[] data = memory.removeLast(); // the oldest one, not first
-			stack.addFirst(data);
+		if (spiller != null) {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+			spiller.join();
+		}
+
+		synchronized (this) {
+			while (memory.size() > 0) {
+				byte[] data = memory.removeLast(); // the oldest one, not first
+				stack.addFirst(data);
+			}
 		}
 		stack.close();
 	}
@@ -10,7 +10,40 @@ public class ByteUtil {
 		return ByteBuffer.allocate(4).putInt(num).array();
 	}
 
+	/**
+	 * the same as {@link #numToByte(int)} but puts 4 bytes into the given array.
+	 */
+	public static void numToByte(int num, byte[] bs, int offset) {
+		bs[offset] = (byte) (num >>> 24);
+		bs[offset + 1] = (byte) (num >>> 16);
+		bs[offset + 2] = (byte) (num >>> 8);
+		bs[offset + 3] = (byte) num;
+	}
+
 	public static int byteToNum(byte[] bs) {
 		return ByteBuffer.wrap(bs).getInt();
 	}
+
+	/**
+	 * the same as {@link #byteToNum(byte[])} but reads 4 bytes from the given offset.
+	 */
+	public static int byteToNum(byte[] bs, int offset) {
+		return (bs[offset] << 24) | ((bs[offset + 1] & 0xff) << 16) | ((bs[offset + 2] & 0xff) << 8)
+				| (bs[offset + 3] & 0xff);
+	}
+
+	/**
+	 * puts 8 bytes of the given long into the given array.
+	 */
+	public static void longToByte(long num, byte[] bs, int offset) {
+		numToByte((int) (num >>> 32), bs, offset);
+		numToByte((int) num, bs, offset + 4);
+	}
+
+	/**
+	 * reads 8 bytes from the given offset.
+	 */
+	public static long byteToLong(byte[] bs, int offset) {
+		return ((long) byteToNum(bs, offset) << 32) | (byteToNum(bs, offset + 4) & 0xffffffffL);
+	}
 }
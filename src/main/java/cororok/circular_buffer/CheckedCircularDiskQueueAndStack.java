@@ -0,0 +1,228 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import cororok.circular_buffer.storage.DefaultDiskWriterFactory;
+import cororok.circular_buffer.storage.DiskWriterFactory;
+
+/**
+ * The same as {@link CircularDiskQueueAndStack} but each frame has a checksum, [length][crc][binary data]. The [crc] is
+ * 4 bytes CRC32C of the length and data so a broken length is found too. It verifies the frames when it reads them
+ * one by one(peekFirst/removeFirst) and also when it reads many of them at once(drain), unless verifyOnRead is false.
+ * {@link #transferFirstTo(java.nio.channels.WritableByteChannel, int)} and {@link #peekFirstView()} do not verify
+ * because data does not come into java heap.
+ *
+ * CRC32C is intrinsic from java 9 and it falls back to CRC32 on java 8. The algorithm is recorded in the index when the
+ * file is created and a file of the other one can not be opened, frames of CRC32C are not broken on java 8.
+ *
+ * The data format is different from {@link CircularDiskQueueAndStack} so it can not open a file of it.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class CheckedCircularDiskQueueAndStack extends CircularDiskQueueAndStack {
+	static final int CHECKED_HEADER_SIZE = 4 + 4; // length and crc
+	static final long CRC32_ID = 1;
+	static final long CRC32C_ID = 2;
+
+	private boolean verifyOnRead = true;
+
+	private final byte[] checkedHeader = new byte[CHECKED_HEADER_SIZE];
+	private final Checksum crc = newChecksum();
+
+	public CheckedCircularDiskQueueAndStack(long capacity, String fileName) throws IOException {
+		super(capacity, fileName);
+		checkAlgorithm();
+	}
+
+	public CheckedCircularDiskQueueAndStack(long capacity, String fileName, boolean verifyOnRead) throws IOException {
+		this(capacity, fileName, new DefaultDiskWriterFactory(), Durability.NONE, verifyOnRead);
+	}
+
+	/**
+	 * @param capacity
+	 * @param fileName
+	 * @param facotry
+	 * @param durability
+	 * @param verifyOnRead
+	 *            false if it should not verify frames when it reads them
+	 * @throws IOException
+	 */
+	public CheckedCircularDiskQueueAndStack(long capacity, String fileName, DiskWriterFactory facotry,
+			Durability durability, boolean verifyOnRead) throws IOException {
+		super(capacity, fileName, facotry, durability);
+		this.verifyOnRead = verifyOnRead;
+		checkAlgorithm();
+	}
+
+	protected CheckedCircularDiskQueueAndStack() {
+	}
+
+	/**
+	 * @return CRC32C if the running java has it, CRC32 otherwise
+	 */
+	static Checksum newChecksum() {
+		try {
+			return (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return new CRC32(); // java 8
+		}
+	}
+
+	/**
+	 * @return {@link #CRC32_ID} or {@link #CRC32C_ID} of the checksum of this java
+	 */
+	long algorithmId() {
+		return crc instanceof CRC32 ? CRC32_ID : CRC32C_ID;
+	}
+
+	/**
+	 * records the algorithm in the index in place of the sequence of {@link LoggedCircularDiskQueue} if it is not
+	 * recorded yet, a new file or one of an older version.
+	 *
+	 * @throws IOException
+	 *             if the file has the other algorithm, it is closed
+	 */
+	private void checkAlgorithm() throws IOException {
+		try {
+			long recorded = index.readSequence();
+			if (recorded == 0) {
+				index.writeAll(info.getStart(), info.size(), info.getEnd(), algorithmId());
+				index.force();
+			} else if (recorded != algorithmId()) {
+				throw new IOException("wrong checksum " + nameOf(recorded) + " of the file, this java has "
+						+ nameOf(algorithmId()));
+			}
+		} catch (IOException | RuntimeException e) {
+			try {
+				close();
+			} catch (Exception ignore) {
+			}
+			throw e;
+		}
+	}
+
+	private static String nameOf(long algorithmId) {
+		if (algorithmId == CRC32_ID)
+			return "CRC32";
+		if (algorithmId == CRC32C_ID)
+			return "CRC32C";
+		return "unknown " + algorithmId;
+	}
+
+	@Override
+	protected void writeFirst(final byte[] bs) throws IOException {
+		// data first, header later
+		long[] dataRange = info.addFirst(bs.length, 1, range2);
+		long[] headerRange = info.addFirst(CHECKED_HEADER_SIZE, 1, range1);
+		putCheckedHeader(checkedHeader, 0, bs);
+		writer.writeStorage(headerRange, checkedHeader, dataRange, bs);
+	}
+
+	@Override
+	protected void writeLast(final byte[] bs) throws IOException {
+		// header first, data later
+		long[] headerRange = info.addLast(CHECKED_HEADER_SIZE, 1, range1);
+		long[] dataRange = info.addLast(bs.length, 1, range2);
+		putCheckedHeader(checkedHeader, 0, bs);
+		writer.writeStorage(headerRange, checkedHeader, dataRange, bs);
+	}
+
+	@Override
+	int putFrame(byte[] frames, int offset, final byte[] bs) throws IOException {
+		putCheckedHeader(frames, offset, bs);
+		System.arraycopy(bs, 0, frames, offset + CHECKED_HEADER_SIZE, bs.length);
+		return offset + CHECKED_HEADER_SIZE + bs.length;
+	}
+
+	private void putCheckedHeader(byte[] frames, int offset, final byte[] bs) {
+		ByteUtil.numToByte(bs.length, frames, offset);
+		ByteUtil.numToByte(crcOf(frames, offset, bs, 0, bs.length), frames, offset + 4);
+	}
+
+	/**
+	 * @return crc of the length of the given header and the given data
+	 */
+	private int crcOf(byte[] header, int headerOffset, byte[] data, int offset, int length) {
+		crc.reset();
+		crc.update(header, headerOffset, 4);
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the crc of the given header is not the one of the given data
+	 */
+	private void verify(byte[] header, int headerOffset, byte[] data, int offset, int length) throws IOException {
+		int expected = ByteUtil.byteToNum(header, headerOffset + 4);
+		int actual = crcOf(header, headerOffset, data, offset, length);
+		if (expected != actual)
+			throw new IOException("broken frame, crc " + Integer.toHexString(actual) + " is not "
+					+ Integer.toHexString(expected));
+	}
+
+	@Override
+	long[] removeFirstRange() throws IOException {
+		writer.readStorage(info.removeFirst(CHECKED_HEADER_SIZE, 1, range1), checkedHeader);
+		return removeFirstData(ByteUtil.byteToNum(checkedHeader, 0));
+	}
+
+	@Override
+	byte[] readFirst() throws IOException {
+		byte[] result = writer.readStorage(removeFirstRange());
+		if (verifyOnRead)
+			verify(checkedHeader, 0, result, 0, result.length);
+		return result;
+	}
+
+	@Override
+	int readFirst(ByteBuffer dst) throws IOException {
+		int position = dst.position();
+		int result = super.readFirst(dst);
+		if (result <= 0 || verifyOnRead == false)
+			return result;
+
+		if (dst.hasArray()) {
+			verify(checkedHeader, 0, dst.array(), dst.arrayOffset() + position, result);
+		} else {
+			byte[] data = new byte[result];
+			ByteBuffer read = dst.duplicate();
+			((Buffer) read).position(position);
+			read.get(data);
+			verify(checkedHeader, 0, data, 0, result);
+		}
+		return result;
+	}
+
+	@Override
+	void verifyFrame(byte[] frames, int offset, int dataLength) throws IOException {
+		if (verifyOnRead)
+			verify(frames, offset, frames, offset + CHECKED_HEADER_SIZE, dataLength);
+	}
+
+	@Override
+	int getLeadingHeaderSize() {
+		return CHECKED_HEADER_SIZE;
+	}
+
+	@Override
+	public int getHeaderSize() {
+		return CHECKED_HEADER_SIZE;
+	}
+
+	@Override
+	public long getAvailableSpace() {
+		return info.getAvailableSpace() - CHECKED_HEADER_SIZE;
+	}
+
+	@Override
+	protected CircularDiskQueueAndStack createDummy() {
+		CheckedCircularDiskQueueAndStack dummy = new CheckedCircularDiskQueueAndStack();
+		dummy.verifyOnRead = verifyOnRead;
+		return dummy;
+	}
+}
@@ -100,18 +100,44 @@ public class CircularBufferInfo implements Cloneable {
 	 *         and the rest 1 space from 0 to (before)1
 	 */
 	public long[] addLast(final long space) {
+		return addLast(space, 1, null);
+	}
+
+	/**
+	 * the same as {@link #addLast(long)} but the given space holds several elements at once.
+	 * 
+	 * @param space
+	 *            total amount of all elements
+	 * @param count
+	 *            # of elements in the space
+	 * @return see {@link #addLast(long)}
+	 */
+	public long[] addLast(final long space, final long count) {
+		return addLast(space, count, null);
+	}
+
+	/**
+	 * the same as {@link #addLast(long, long)} but it fills the given reusable range instead of creating a new array.
+	 * 
+	 * @param space
+	 * @param count
+	 * @param out
+	 *            null if it should create a new array
+	 * @return see {@link #addLast(long)}
+	 */
+	public long[] addLast(final long space, final long count, final Range out) {
 		long[] range;
 		if (size == 0) {
 			if (end == 0 || end == capacity)
-				range = moveRightOnly(0, capacity, space);
+				range = moveRightOnly(0, capacity, space, out);
 			else
-				range = moveRightAndOver(end, start, space);
+				range = moveRightAndOver(end, start, space, out);
 		} else if (start < end) {
-			range = moveRightAndOver(end, start, space);
+			range = moveRightAndOver(end, start, space, out);
 		} else if (start == end) {
 			return null; // full
 		} else {
-			range = moveRightOnly(end, start, space);
+			range = moveRightOnly(end, start, space, out);
 		}
 
 		// after
@@ -122,7 +148,7 @@ public class CircularBufferInfo implements Cloneable {
 		else
 			end = range[3];
 
-		increaseLengthSize(space);
+		increaseLengthSize(space, count);
 		return range;
 	}
 
@@ -136,18 +162,44 @@ public class CircularBufferInfo implements Cloneable {
 	 *         data.
 	 */
 	public long[] addFirst(final long space) {
+		return addFirst(space, 1, null);
+	}
+
+	/**
+	 * the same as {@link #addFirst(long)} but the given space holds several elements at once.
+	 * 
+	 * @param space
+	 *            total amount of all elements
+	 * @param count
+	 *            # of elements in the space
+	 * @return see {@link #addFirst(long)}
+	 */
+	public long[] addFirst(final long space, final long count) {
+		return addFirst(space, count, null);
+	}
+
+	/**
+	 * the same as {@link #addFirst(long, long)} but it fills the given reusable range instead of creating a new array.
+	 * 
+	 * @param space
+	 * @param count
+	 * @param out
+	 *            null if it should create a new array
+	 * @return see {@link #addFirst(long)}
+	 */
+	public long[] addFirst(final long space, final long count, final Range out) {
 		long[] range;
 		if (size == 0) {
 			if (end == 0 || end == capacity)
-				range = moveLeftOnly(capacity, 0, space);
+				range = moveLeftOnly(capacity, 0, space, out);
 			else
-				range = moveLeftAndOver(start, end, space);
+				range = moveLeftAndOver(start, end, space, out);
 		} else if (start < end) {
-			range = moveLeftAndOver(start, end, space);
+			range = moveLeftAndOver(start, end, space, out);
 		} else if (start == end) {
 			return null; // full
 		} else {
-			range = moveLeftOnly(start, end, space);
+			range = moveLeftOnly(start, end, space, out);
 		}
 
 		// after
@@ -155,7 +207,7 @@ public class CircularBufferInfo implements Cloneable {
 			return null;
 		start = range[0];
 
-		increaseLengthSize(space);
+		increaseLengthSize(space, count);
 		return range;
 	}
 
@@ -170,19 +222,31 @@ public class CircularBufferInfo implements Cloneable {
 	 *         divided into two peaces from[0] to [1] + from[2] to [3]
 	 */
 	public long[] removeLast(final long space) {
+		return removeLast(space, null);
+	}
+
+	/**
+	 * the same as {@link #removeLast(long)} but it fills the given reusable range instead of creating a new array.
+	 * 
+	 * @param space
+	 * @param out
+	 *            null if it should create a new array
+	 * @return see {@link #removeLast(long)}
+	 */
+	public long[] removeLast(final long space, final Range out) {
 		if (canRemove(space) == false)
 			return null;
 
 		long[] range;
 		if (start < end) {
-			range = moveLeftOnly(end, start, space);
+			range = moveLeftOnly(end, start, space, out);
 		} else if (start == end) { // full
 			if (end == 0 || end == capacity)
-				range = moveLeftOnly(capacity, 0, space);
+				range = moveLeftOnly(capacity, 0, space, out);
 			else
-				range = moveLeftAndOver(end, start, space);
+				range = moveLeftAndOver(end, start, space, out);
 		} else {
-			range = moveLeftAndOver(end, start, space);
+			range = moveLeftAndOver(end, start, space, out);
 		}
 
 		// after
@@ -190,7 +254,7 @@ public class CircularBufferInfo implements Cloneable {
 			return null;
 		end = range[0];
 
-		decreaseLengthSize(space);
+		decreaseLengthSize(space, 1);
 		return range;
 	}
 
@@ -205,20 +269,34 @@ public class CircularBufferInfo implements Cloneable {
 	 *         divided into two peaces from[0] to [1] + from[2] to [3]
 	 */
 	public long[] removeFirst(final long space) {
-		if (canRemove(space) == false)
-			return null;
+		return removeFirst(space, 1, null);
+	}
 
-		long[] range;
-		if (start < end) {
-			range = moveRightOnly(start, end, space);
-		} else if (start == end) { // full
-			if (end == 0 || end == capacity)
-				range = moveRightOnly(0, capacity, space);
-			else
-				range = moveRightAndOver(start, end, space);
-		} else {
-			range = moveRightAndOver(start, end, space);
-		}
+	/**
+	 * the same as {@link #removeFirst(long)} but the given space holds several elements at once.
+	 * 
+	 * @param space
+	 *            total amount of all elements
+	 * @param count
+	 *            # of elements in the space
+	 * @return see {@link #removeFirst(long)}
+	 */
+	public long[] removeFirst(final long space, final long count) {
+		return removeFirst(space, count, null);
+	}
+
+	/**
+	 * the same as {@link #removeFirst(long, long)} but it fills the given reusable range instead of creating a new
+	 * array.
+	 * 
+	 * @param space
+	 * @param count
+	 * @param out
+	 *            null if it should create a new array
+	 * @return see {@link #removeFirst(long)}
+	 */
+	public long[] removeFirst(final long space, final long count, final Range out) {
+		long[] range = peekFirst(space, out);
 
 		// after
 		if (range == null)
@@ -228,68 +306,115 @@ public class CircularBufferInfo implements Cloneable {
 		else
 			start = range[3];
 
-		decreaseLengthSize(space);
+		decreaseLengthSize(space, count);
 		return range;
 	}
 
-	private void increaseLengthSize(long space) {
+	/**
+	 * the same as {@link #removeFirst(long)} but it does not change anything.
+	 * 
+	 * @param space
+	 *            the size of data it will read
+	 * @return see {@link #removeFirst(long)}
+	 */
+	public long[] peekFirst(final long space) {
+		return peekFirst(space, null);
+	}
+
+	/**
+	 * the same as {@link #peekFirst(long)} but it fills the given reusable range instead of creating a new array.
+	 * 
+	 * @param space
+	 * @param out
+	 *            null if it should create a new array
+	 * @return see {@link #removeFirst(long)}
+	 */
+	public long[] peekFirst(final long space, final Range out) {
+		if (canRemove(space) == false)
+			return null;
+
+		if (start < end) {
+			return moveRightOnly(start, end, space, out);
+		} else if (start == end) { // full
+			if (end == 0 || end == capacity)
+				return moveRightOnly(0, capacity, space, out);
+			else
+				return moveRightAndOver(start, end, space, out);
+		} else {
+			return moveRightAndOver(start, end, space, out);
+		}
+	}
+
+	private void increaseLengthSize(long space, long count) {
 		length += space;
-		++size;
+		size += count;
 	}
 
-	private void decreaseLengthSize(long space) {
+	private void decreaseLengthSize(long space, long count) {
 		length -= space;
-		--size;
+		size -= count;
+	}
+
+	private static long[] range(final Range out, long from, long to) {
+		if (out == null)
+			return new long[] { from, to };
+		return out.of(from, to);
+	}
+
+	private static long[] range(final Range out, long from1, long to1, long from2, long to2) {
+		if (out == null)
+			return new long[] { from1, to1, from2, to2 };
+		return out.of(from1, to1, from2, to2);
 	}
 
-	private long[] moveRightOnly(final long start, final long end, final long space) {
+	private long[] moveRightOnly(final long start, final long end, final long space, final Range out) {
 		long newStart = start + space;
 		if (newStart > end)
 			return null;
-		return new long[] { start, newStart };
+		return range(out, start, newStart);
 	}
 
-	private long[] moveLeftOnly(final long start, final long end, final long space) {
+	private long[] moveLeftOnly(final long start, final long end, final long space, final Range out) {
 		long newStart = start - space;
 		if (newStart < end)
 			return null;
-		return new long[] { newStart, start };
+		return range(out, newStart, start);
 	}
 
-	private long[] moveRightAndOver(final long start, final long end, final long space) {
+	private long[] moveRightAndOver(final long start, final long end, final long space, final Range out) {
 		if (start == capacity) {
 			if (space > end)
 				return null; // not enough
-			return new long[] { 0, space };
+			return range(out, 0, space);
 		}
 
 		long newStart = start + space;
 		if (newStart <= capacity)
-			return new long[] { start, newStart };
+			return range(out, start, newStart);
 
 		newStart = newStart - capacity; // there is a 2nd part
 		if (newStart > end)
 			return null;
-		return new long[] { start, capacity, 0, newStart };
+		return range(out, start, capacity, 0, newStart);
 	}
 
-	private long[] moveLeftAndOver(final long start, final long end, final long space) {
+	private long[] moveLeftAndOver(final long start, final long end, final long space, final Range out) {
 		if (start == 0) {
 			long newStart = capacity - space;
 			if (newStart < end)
 				return null; // not enough
-			return new long[] { newStart, capacity };
+			return range(out, newStart, capacity);
 		}
 
 		long newStart = start - space;
 		if (newStart >= 0)
-			return new long[] { newStart, start };
+			return range(out, newStart, start);
 
 		// newStart is negative
 		newStart = newStart + capacity; // there is a 2nd part
 		if (newStart < end)
 			return null;
-		return new long[] { newStart, capacity, 0, start };
+		return range(out, newStart, capacity, 0, start);
 	}
 
 	public void backupStatus() {
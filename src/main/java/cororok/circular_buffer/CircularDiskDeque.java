@@ -1,8 +1,11 @@
 package cororok.circular_buffer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 
+import cororok.circular_buffer.storage.DiskWriterFactory;
+
 /**
  * Because it has to read data from both left(first) and right(last) side it should keep duplicated size header in both
  * left and right of data so the data format is [length][binary data][the same length] and repeats them.
@@ -19,41 +22,73 @@ public class CircularDiskDeque extends CircularDiskQueueAndStack implements Dequ
 		super(capacity, fileName);
 	}
 
+	public CircularDiskDeque(long capacity, String fileName, DiskWriterFactory facotry, Durability durability)
+			throws IOException {
+		super(capacity, fileName, facotry, durability);
+	}
+
 	protected CircularDiskDeque() {
 	}
 
 	@Override
 	protected void writeFirst(final byte[] bs) throws IOException { // header, data, header
-		writeHeader(info.addFirst(HEADER_SIZE), bs.length); // one more header
+		writeHeader(info.addFirst(HEADER_SIZE, 1, range1), bs.length); // one more header
 		super.writeFirst(bs); // to left, header+data
 	}
 
 	@Override
 	protected void writeLast(final byte[] bs) throws IOException { // header, data, header
 		super.writeLast(bs); // header+data
-		writeHeader(info.addLast(HEADER_SIZE), bs.length); // one more header
+		writeHeader(info.addLast(HEADER_SIZE, 1, range1), bs.length); // one more header
+	}
+
+	@Override
+	int getPiecesPerElement() {
+		return 3;
+	}
+
+	@Override
+	int putFrame(byte[] frames, int offset, final byte[] bs) throws IOException {
+		offset = super.putFrame(frames, offset, bs);
+		return putHeader(frames, offset, bs.length); // one more header
 	}
 
 	byte[] readFirstToRemove() throws IOException {
 		byte[] result = super.readFirst();
-		info.removeFirst(HEADER_SIZE); // rid one more header
+		info.removeFirst(HEADER_SIZE, 1, range1); // rid one more header
+		return result;
+	}
+
+	int readFirstToRemove(ByteBuffer dst) throws IOException {
+		int result = super.readFirst(dst);
+		if (result > 0)
+			info.removeFirst(HEADER_SIZE, 1, range1); // rid one more header
 		return result;
 	}
 
+	@Override
+	long[] removeFirstRangeToRemove() throws IOException {
+		long[] range = super.removeFirstRange();
+		info.removeFirst(HEADER_SIZE, 1, range1); // rid one more header
+		return range;
+	}
+
 	byte[] readLast() throws IOException {
-		long length = readHeader(info.removeLast(HEADER_SIZE));
-		long[] range = info.removeLast(length);
+		long length = readHeader(info.removeLast(HEADER_SIZE, range1));
+		if (length <= 0 || length > info.length())
+			throw new IOException("wrong header " + length); // it does not read a wrong range
+		long[] range = info.removeLast(length, range2);
 		return writer.readStorage(range);
 	}
 
 	byte[] readLastToRemove() throws IOException {
 		byte[] result = readLast();
-		info.removeLast(HEADER_SIZE); // rid one more header
+		info.removeLast(HEADER_SIZE, range1); // rid one more header
 		return result;
 	}
 
 	@Override
-	public byte[] peekLast() throws IOException {
+	public synchronized byte[] peekLast() throws IOException {
 		if (info.size() == 0)
 			return null;
 
@@ -68,7 +103,7 @@ public class CircularDiskDeque extends CircularDiskQueueAndStack implements Dequ
 	}
 
 	@Override
-	public byte[] removeLast() throws IOException {
+	public synchronized byte[] removeLast() throws IOException {
 		if (info.size() == 0)
 			throw new NoSuchElementException();
 
@@ -1,6 +1,9 @@
 package cororok.circular_buffer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import cororok.circular_buffer.storage.DiskWriterFactory;
 
 /**
  * If data is fixed length then it does not need header to keep the length because it already knows the length therefore
@@ -17,6 +20,12 @@ public class CircularDiskDequeFixed extends CircularDiskDeque {
 		this.fixedSize = fixedSize;
 	}
 
+	public CircularDiskDequeFixed(long capacity, String fileName, int fixedSize, DiskWriterFactory facotry,
+			Durability durability) throws IOException {
+		super(capacity, fileName, facotry, durability);
+		this.fixedSize = fixedSize;
+	}
+
 	public CircularDiskDequeFixed(int fixedSize) {
 		this.fixedSize = fixedSize;
 	}
@@ -29,25 +38,55 @@ public class CircularDiskDequeFixed extends CircularDiskDeque {
 
 	@Override
 	protected void writeFirst(final byte[] bs) throws IOException {
-		write(info.addFirst(bs.length), bs);
+		write(info.addFirst(bs.length, 1, range1), bs);
 	}
 
 	@Override
 	protected void writeLast(final byte[] bs) throws IOException {
-		write(info.addLast(bs.length), bs);
+		write(info.addLast(bs.length, 1, range1), bs);
 	}
 
 	private void write(final long[] range, final byte[] bs) throws IOException {
+		checkSize(bs);
+		writer.writeStorage(range, bs);
+	}
+
+	private void checkSize(final byte[] bs) throws IOException {
 		if (bs.length != fixedSize)
 			throw new IOException("wrong input size " + bs.length + ", expected " + fixedSize);
+	}
 
-		writer.writeStorage(range, bs);
+	@Override
+	int getPiecesPerElement() {
+		return 1;
 	}
 
 	@Override
-	byte[] readFirst() throws IOException {
-		long[] range = info.removeFirst(fixedSize);
-		return writer.readStorage(range);
+	int putFrame(byte[] frames, int offset, final byte[] bs) throws IOException {
+		checkSize(bs);
+		System.arraycopy(bs, 0, frames, offset, bs.length);
+		return offset + bs.length;
+	}
+
+	@Override
+	int getLeadingHeaderSize() {
+		return 0;
+	}
+
+	@Override
+	int getDataLength(byte[] frames, int offset) {
+		return fixedSize;
+	}
+
+	@Override
+	long[] removeFirstRange() throws IOException {
+		checkLength();
+		return info.removeFirst(fixedSize, 1, range1);
+	}
+
+	@Override
+	long[] removeFirstRangeToRemove() throws IOException {
+		return removeFirstRange();
 	}
 
 	@Override
@@ -55,12 +94,27 @@ public class CircularDiskDequeFixed extends CircularDiskDeque {
 		return readFirst();
 	}
 
+	@Override
+	int readFirstToRemove(ByteBuffer dst) throws IOException {
+		return readFirst(dst);
+	}
+
 	@Override
 	byte[] readLast() throws IOException {
-		long[] range = info.removeLast(fixedSize);
+		checkLength();
+		long[] range = info.removeLast(fixedSize, range1);
 		return writer.readStorage(range);
 	}
 
+	/**
+	 * @throws IOException
+	 *             if the stored length is shorter than an element, a broken index
+	 */
+	private void checkLength() throws IOException {
+		if (info.length() < fixedSize)
+			throw new IOException("wrong length " + info.length() + ", expected " + fixedSize);
+	}
+
 	@Override
 	byte[] readLastToRemove() throws IOException {
 		return readLast();
@@ -2,13 +2,21 @@ package cororok.circular_buffer;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
 
 import cororok.circular_buffer.storage.DefaultDiskWriterFactory;
 import cororok.circular_buffer.storage.DiskWriter;
 import cororok.circular_buffer.storage.DiskWriterFactory;
 import cororok.circular_buffer.storage.IndexWriter;
+import cororok.circular_buffer.storage.MappedDiskWriter;
 
 /**
  * It supports stack(FIFO, addFirst & removeFirst) and queue(LIFO, addLast & removeFirst) but does not support deque
@@ -29,13 +37,26 @@ import cororok.circular_buffer.storage.IndexWriter;
  */
 public class CircularDiskQueueAndStack implements Queue, Stack {
 	protected static final int HEADER_SIZE = 4; // 1 bytes
+	static final int DEFAULT_DRAIN_BUFFER_SIZE = 1024 * 1024;
 	CircularBufferInfo info;
 
 	DiskWriter writer;
 	IndexWriter index;
-	private File lock;
+	private ProcessLock lock;
 	int changed;
 
+	/**
+	 * how much it reads at once to drain
+	 */
+	int drainBufferSize = DEFAULT_DRAIN_BUFFER_SIZE;
+
+	/**
+	 * reusable ranges and header so add/remove does not create them every time.
+	 */
+	final Range range1 = new Range();
+	final Range range2 = new Range();
+	final byte[] header = new byte[HEADER_SIZE];
+
 	/**
 	 * current total length of all input data without additional headers.
 	 */
@@ -46,49 +67,73 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 	 */
 	protected long size;
 
-	private DiskWriterFactory facotry;
+	DiskWriterFactory facotry;
+
+	Durability durability = Durability.NONE;
+
+	/**
+	 * # of add/remove after the last sync
+	 */
+	int notSynced;
+	long lastSync = System.currentTimeMillis();
+
+	/**
+	 * start and length of the data the index on disk has, GROUP_COMMIT should not overwrite them before the next sync
+	 */
+	private long syncedStart;
+	private long syncedLength;
+
+	private AsyncCommitter committer;
 
 	public CircularDiskQueueAndStack(long capacity, String fileName) throws IOException {
 		this(capacity, fileName, new DefaultDiskWriterFactory());
 	}
 
+	public CircularDiskQueueAndStack(long capacity, String fileName, Durability durability) throws IOException {
+		this(capacity, fileName, new DefaultDiskWriterFactory(), durability);
+	}
+
 	public CircularDiskQueueAndStack(long capacity, String fileName, DiskWriterFactory facotry) throws IOException {
+		this(capacity, fileName, facotry, Durability.NONE);
+	}
+
+	public CircularDiskQueueAndStack(long capacity, String fileName, DiskWriterFactory facotry, Durability durability)
+			throws IOException {
 		this.facotry = facotry;
-		if (openFile(fileName)) { // existing, needs to read size and length
+		this.durability = durability;
+		if (openFile(fileName, capacity)) { // existing, needs to read size and length
 			long[] startSizeEnd = this.index.readAll();
 			this.info = new CircularBufferInfo(capacity, startSizeEnd[0], startSizeEnd[2], startSizeEnd[1]);
 		} else {
 			this.info = new CircularBufferInfo(capacity);
 		}
 		initSizeAndLength();
+		this.syncedStart = info.getStart();
+		this.syncedLength = info.length();
 	}
 
 	protected CircularDiskQueueAndStack() {
 	}
 
 	/**
-	 * open or create the data file. It should lock file so that other processes can not access the data file at the
-	 * same time.
+	 * open or create the data file. It locks the file so that other processes can not access the data file at the
+	 * same time, see {@link ProcessLock}.
 	 * 
 	 * @param fileName
 	 *            data file name
+	 * @param capacity
 	 * @return true if it data file already exists
 	 * @throws IOException
 	 *             if someone is using the file
 	 */
-	private synchronized boolean openFile(String fileName) throws IOException {
-		lock = new File(fileName + ".lock");
-		if (lock.exists())
-			throw new IOException("exit because lock file exist at " + lock.getAbsolutePath());
-
-		lock.createNewFile();
-
+	private synchronized boolean openFile(String fileName, long capacity) throws IOException {
 		File dataFile = new File(fileName);
-		boolean fileExists = dataFile.exists();
+		boolean fileExists = dataFile.exists(); // before locking it creates the file
+		lock = new ProcessLock(fileName);
 
-		this.writer = facotry.createStorageWriter(dataFile);
+		this.writer = facotry.createStorageWriter(dataFile, capacity);
 		File indexfile = new File(fileName + ".index");
-		this.index = new IndexWriter(facotry.createStorageWriter(indexfile));
+		this.index = facotry.createIndexWriter(indexfile);
 
 		return fileExists;
 	}
@@ -97,14 +142,22 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 	 * solves mismatch between this and info
 	 */
 	void initSizeAndLength() {
-		this.size = this.info.size() / 2; // info counts header and data
-		this.length = this.info.length() - this.size * HEADER_SIZE;
+		this.size = this.info.size() / getPiecesPerElement(); // info counts header and data
+		this.length = this.info.length() - this.size * getHeaderSize();
+	}
+
+	/**
+	 * @return # of pieces(headers and data) {@link CircularBufferInfo} counts for a single element
+	 */
+	int getPiecesPerElement() {
+		return 2;
 	}
 
 	@Override
-	public void addFirst(final byte[] bs) throws IOException {
+	public synchronized void addFirst(final byte[] bs) throws IOException {
 		canWrite(bs);
 		try {
+			syncBeforeOverwrite(bs.length + getHeaderSize(), true);
 			writeFirst(bs);
 			writeIndexStart();
 			increaseLengthSize(bs.length);
@@ -115,9 +168,10 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 	}
 
 	@Override
-	public void addLast(final byte[] bs) throws IOException {
+	public synchronized void addLast(final byte[] bs) throws IOException {
 		canWrite(bs);
 		try {
+			syncBeforeOverwrite(bs.length + getHeaderSize(), false);
 			writeLast(bs);
 			writeIndexEnd();
 			increaseLengthSize(bs.length);
@@ -127,6 +181,125 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 		}
 	}
 
+	@Override
+	public synchronized void addFirstBatch(final List<byte[]> list) throws IOException {
+		if (list.isEmpty())
+			return;
+
+		byte[] frames = toFrames(list, true);
+		info.backupStatus();
+		try {
+			syncBeforeOverwrite(frames.length, true);
+			long[] range = info.addFirst(frames.length, (long) list.size() * getPiecesPerElement());
+			writer.writeStorage(range, frames);
+			writeIndexStart();
+			increaseLengthSize(frames.length - (long) list.size() * getHeaderSize(), list.size());
+		} catch (Throwable e) {
+			info.rollback();
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized void addLastBatch(final List<byte[]> list) throws IOException {
+		if (list.isEmpty())
+			return;
+
+		byte[] frames = toFrames(list, false);
+		info.backupStatus();
+		try {
+			syncBeforeOverwrite(frames.length, false);
+			long[] range = info.addLast(frames.length, (long) list.size() * getPiecesPerElement());
+			writer.writeStorage(range, frames);
+			writeIndexEnd();
+			increaseLengthSize(frames.length - (long) list.size() * getHeaderSize(), list.size());
+		} catch (Throwable e) {
+			info.rollback();
+			throw e;
+		}
+	}
+
+	/**
+	 * puts all of them with headers into a single array so it can be saved at once.
+	 * 
+	 * @param list
+	 * @param reverse
+	 *            true if the last one of the list should be at the left side(first)
+	 * @return frames
+	 * @throws IOException
+	 *             if it has not enough space
+	 */
+	private byte[] toFrames(final List<byte[]> list, boolean reverse) throws IOException {
+		long total = 0;
+		for (byte[] bs : list) {
+			if (bs == null || bs.length == 0)
+				throw new RuntimeException("empty input data");
+			total += bs.length + getHeaderSize();
+		}
+
+		if (total > Integer.MAX_VALUE)
+			throw new RuntimeException("too big batch " + total);
+		if (info.canAdd(total) == false)
+			throw new IOException("no more sapce");
+
+		byte[] frames = new byte[(int) total];
+		int offset = 0;
+		for (int i = 0, n = list.size(); i < n; i++) {
+			offset = putFrame(frames, offset, list.get(reverse ? n - 1 - i : i));
+		}
+		return frames;
+	}
+
+	/**
+	 * puts [length][binary data] into the given frames.
+	 * 
+	 * @param frames
+	 * @param offset
+	 *            from where it puts
+	 * @param bs
+	 * @return next offset
+	 * @throws IOException
+	 */
+	int putFrame(byte[] frames, int offset, final byte[] bs) throws IOException {
+		offset = putHeader(frames, offset, bs.length);
+		System.arraycopy(bs, 0, frames, offset, bs.length);
+		return offset + bs.length;
+	}
+
+	static int putHeader(byte[] frames, int offset, int length) {
+		ByteUtil.numToByte(length, frames, offset);
+		return offset + HEADER_SIZE;
+	}
+
+	/**
+	 * adds data at the last like {@link #addLast(byte[])} and the returned future is completed after the data and index
+	 * are saved physically by {@link #sync()}. A background thread calls sync once for all the pending ones so many
+	 * threads can call it at the same time. Other methods lock this too so they can be called at the same time.
+	 * 
+	 * @param bs
+	 * @return completed exceptionally if it fails to add or sync
+	 */
+	public CompletableFuture<Void> addLastAsync(final byte[] bs) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		try {
+			synchronized (this) {
+				addLast(bs);
+				getCommitter().add(future);
+			}
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private AsyncCommitter getCommitter() {
+		if (committer == null) {
+			committer = new AsyncCommitter(this);
+			committer.start();
+		}
+		return committer;
+	}
+
 	private void canWrite(final byte[] bs) throws IOException {
 		if (bs == null || bs.length == 0)
 			throw new RuntimeException("empty input data");
@@ -139,18 +312,22 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 
 	protected void writeFirst(final byte[] bs) throws IOException {
 		// data first, header later
-		writer.writeStorage(info.addFirst(bs.length), bs);
-		writeHeader(info.addFirst(HEADER_SIZE), bs.length);
+		long[] dataRange = info.addFirst(bs.length, 1, range2);
+		long[] headerRange = info.addFirst(HEADER_SIZE, 1, range1);
+		ByteUtil.numToByte(bs.length, header, 0);
+		writer.writeStorage(headerRange, header, dataRange, bs);
 	}
 
 	protected void writeLast(final byte[] bs) throws IOException {
 		// header first, data later
-		writeHeader(info.addLast(HEADER_SIZE), bs.length);
-		writer.writeStorage(info.addLast(bs.length), bs);
+		long[] headerRange = info.addLast(HEADER_SIZE, 1, range1);
+		long[] dataRange = info.addLast(bs.length, 1, range2);
+		ByteUtil.numToByte(bs.length, header, 0);
+		writer.writeStorage(headerRange, header, dataRange, bs);
 	}
 
 	@Override
-	public byte[] peekFirst() throws IOException {
+	public synchronized byte[] peekFirst() throws IOException {
 		if (info.size() == 0)
 			return null;
 
@@ -165,7 +342,7 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 	}
 
 	@Override
-	public byte[] removeFirst() throws IOException {
+	public synchronized byte[] removeFirst() throws IOException {
 		if (info.size() == 0)
 			throw new NoSuchElementException();
 
@@ -181,43 +358,415 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 		}
 	}
 
+	@Override
+	public synchronized int peekFirst(ByteBuffer dst) throws IOException {
+		if (info.size() == 0)
+			return 0;
+
+		info.backupStatus();
+		try {
+			return readFirst(dst);
+		} catch (Throwable e) {
+			throw e;
+		} finally {
+			info.rollback(); // because read only
+		}
+	}
+
+	@Override
+	public synchronized int removeFirst(ByteBuffer dst) throws IOException {
+		if (info.size() == 0)
+			throw new NoSuchElementException();
+
+		info.backupStatus();
+		try {
+			int result = readFirstToRemove(dst);
+			if (result < 0) { // not enough buffer
+				info.rollback();
+				return result;
+			}
+			writeIndexStart();
+			decreaseLengthSize(result);
+			return result;
+		} catch (Throwable e) {
+			info.rollback();
+			throw e;
+		}
+	}
+
+	/**
+	 * sends data from the first to the given channel and removes them. It only sends binary data without header and the
+	 * data does not come into java heap if {@link DiskWriter} supports it. If it fails in the middle the data which was
+	 * sent completely is removed but the one which failed is not so it can be sent again.
+	 * 
+	 * @param target
+	 *            a blocking channel
+	 * @param maxElements
+	 * @return # of elements it sent
+	 * @throws IOException
+	 */
+	public synchronized int transferFirstTo(WritableByteChannel target, int maxElements) throws IOException {
+		int count = 0;
+		long removedLength = 0;
+		try {
+			while (count < maxElements && info.size() > 0) {
+				info.backupStatus();
+				long[] range = removeFirstRangeToRemove();
+				writer.transferTo(range, target);
+
+				removedLength += lengthOf(range);
+				++count;
+			}
+		} catch (Throwable e) {
+			info.rollback(); // only the last one
+			throw e;
+		} finally {
+			if (count > 0) {
+				writeIndexStart();
+				decreaseLengthSize(removedLength, count);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Read data only without copy if the storage supports it like {@link MappedDiskWriter}, otherwise it reads data into
+	 * a new buffer.
+	 * 
+	 * @return a read only buffer which is valid until the data is removed, null if it is empty
+	 * @throws IOException
+	 */
+	public synchronized ByteBuffer peekFirstView() throws IOException {
+		if (info.size() == 0)
+			return null;
+
+		info.backupStatus();
+		try {
+			long[] range = removeFirstRange();
+			ByteBuffer view = writer.view(range);
+			if (view == null)
+				view = ByteBuffer.wrap(writer.readStorage(range)).asReadOnlyBuffer();
+			return view;
+		} catch (Throwable e) {
+			throw e;
+		} finally {
+			info.rollback(); // because read only
+		}
+	}
+
+	@Override
+	public synchronized List<byte[]> drain(int maxElements) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, maxElements, Long.MAX_VALUE);
+		return result;
+	}
+
+	@Override
+	public synchronized int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException {
+		return drainTo(c, maxElements, Long.MAX_VALUE);
+	}
+
+	@Override
+	public synchronized List<byte[]> drainBytes(long maxBytes) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, Integer.MAX_VALUE, maxBytes);
+		return result;
+	}
+
+	/**
+	 * reads a big chunk from the first at once and splits it into elements in memory. If the first element is bigger
+	 * than the chunk it reads the element only. It writes index only once at the end.
+	 * 
+	 * @param c
+	 * @param maxElements
+	 * @param maxBytes
+	 *            see {@link #drainBytes(long)}
+	 * @return # of elements it added into the given collection
+	 * @throws IOException
+	 */
+	int drainTo(Collection<? super byte[]> c, int maxElements, long maxBytes) throws IOException {
+		if (info.size() == 0 || maxElements <= 0)
+			return 0;
+
+		List<byte[]> result = new ArrayList<>();
+		long removedLength = 0;
+		info.backupStatus();
+		try {
+			boolean done = false;
+			while (done == false && result.size() < maxElements && info.size() > 0) {
+				// at least the header to know the length of the first one
+				int chunkSize = (int) Math.min(info.length(), Math.max(drainBufferSize, getLeadingHeaderSize()));
+				byte[] chunk = writer.readStorage(info.peekFirst(chunkSize));
+
+				int offset = 0;
+				int count = 0;
+				while (result.size() < maxElements && offset + getLeadingHeaderSize() <= chunk.length) {
+					int dataLength = getDataLength(chunk, offset);
+					if (dataLength <= 0)
+						throw new IOException("wrong header " + dataLength + " at " + offset);
+					if (removedLength + dataLength > maxBytes && result.isEmpty() == false) {
+						done = true;
+						break;
+					}
+					if (offset + dataLength + getHeaderSize() > chunk.length)
+						break; // the rest is in the next chunk
+
+					verifyFrame(chunk, offset, dataLength);
+					int from = offset + getLeadingHeaderSize();
+					result.add(Arrays.copyOfRange(chunk, from, from + dataLength));
+					offset += dataLength + getHeaderSize();
+					removedLength += dataLength;
+					++count;
+				}
+
+				if (count > 0) {
+					info.removeFirst(offset, (long) count * getPiecesPerElement());
+				} else if (done == false) { // the first one is bigger than the chunk
+					byte[] data = readFirstToRemove();
+					result.add(data);
+					removedLength += data.length;
+				}
+			}
+
+			writeIndexStart();
+			decreaseLengthSize(removedLength, result.size());
+		} catch (Throwable e) {
+			info.rollback();
+			throw e;
+		}
+
+		c.addAll(result);
+		return result.size();
+	}
+
+	/**
+	 * @return size of header at the left side of binary data
+	 */
+	int getLeadingHeaderSize() {
+		return HEADER_SIZE;
+	}
+
+	/**
+	 * @param frames
+	 * @param offset
+	 *            where a frame starts
+	 * @return length of binary data of the frame
+	 */
+	int getDataLength(byte[] frames, int offset) {
+		return ByteUtil.byteToNum(frames, offset);
+	}
+
+	/**
+	 * checks a frame which {@link #drainTo(Collection, int, long)} read, nothing by default.
+	 * 
+	 * @param frames
+	 * @param offset
+	 *            where a frame starts
+	 * @param dataLength
+	 * @throws IOException
+	 *             if the frame is broken
+	 */
+	void verifyFrame(byte[] frames, int offset, int dataLength) throws IOException {
+	}
+
+	/**
+	 * removes the header of the first data from info
+	 * 
+	 * @return range of the first data
+	 * @throws IOException
+	 */
+	long[] removeFirstRange() throws IOException {
+		long length = readHeader(info.removeFirst(HEADER_SIZE, 1, range1));
+		return removeFirstData(length);
+	}
+
+	/**
+	 * removes the data of the header which was removed already.
+	 * 
+	 * @param length
+	 *            from the header
+	 * @return range of the data
+	 * @throws IOException
+	 *             if the length is broken, it does not read a wrong range
+	 */
+	long[] removeFirstData(long length) throws IOException {
+		if (length <= 0 || length > info.length())
+			throw new IOException("wrong header " + length);
+		return info.removeFirst(length, 1, range2);
+	}
+
 	byte[] readFirst() throws IOException {
-		long length = readHeader(info.removeFirst(HEADER_SIZE));
-		long[] range = info.removeFirst(length);
-		return writer.readStorage(range);
+		return writer.readStorage(removeFirstRange());
+	}
+
+	/**
+	 * @param dst
+	 * @return see {@link #removeFirst(ByteBuffer)}
+	 * @throws IOException
+	 */
+	int readFirst(ByteBuffer dst) throws IOException {
+		long[] range = removeFirstRange();
+		int length = (int) lengthOf(range);
+		if (dst.remaining() < length)
+			return -length;
+
+		writer.readStorage(range, dst);
+		return length;
+	}
+
+	/**
+	 * the same as {@link #removeFirstRange()} but it removes all the headers of the first data.
+	 */
+	long[] removeFirstRangeToRemove() throws IOException {
+		return removeFirstRange();
+	}
+
+	static long lengthOf(long[] range) {
+		if (range.length == 2)
+			return range[1] - range[0];
+		return range[1] - range[0] + range[3] - range[2];
 	}
 
 	byte[] readFirstToRemove() throws IOException {
 		return readFirst();
 	}
 
+	int readFirstToRemove(ByteBuffer dst) throws IOException {
+		return readFirst(dst);
+	}
+
 	void writeIndexStart() throws IOException {
-		index.writeStartAndSize(info.getStart(), info.size());
+		switch (durability.mode) {
+		case EVERY_OP:
+			writer.force(); // data first
+			index.writeStartAndSize(info.getStart(), info.size());
+			index.force();
+			break;
+		case GROUP_COMMIT:
+			groupCommit(); // index later
+			break;
+		default:
+			index.writeStartAndSize(info.getStart(), info.size());
+		}
 	}
 
 	void writeIndexEnd() throws IOException {
-		index.writeEndAndSize(info.getEnd(), info.size());
+		switch (durability.mode) {
+		case EVERY_OP:
+			writer.force(); // data first
+			index.writeEndAndSize(info.getEnd(), info.size());
+			index.force();
+			break;
+		case GROUP_COMMIT:
+			groupCommit(); // index later
+			break;
+		default:
+			index.writeEndAndSize(info.getEnd(), info.size());
+		}
+	}
+
+	private void groupCommit() throws IOException {
+		++notSynced;
+		if (notSynced >= durability.maxOps || System.currentTimeMillis() - lastSync >= durability.maxDelayMillis)
+			sync();
+		else if (notSynced == 1) // the first one after the last sync, in case it becomes idle
+			getCommitter().flushLater(lastSync + durability.maxDelayMillis);
+	}
+
+	/**
+	 * the committer calls this at the time {@link AsyncCommitter#flushLater(long)} was given, it syncs if
+	 * maxDelayMillis has passed since the last sync otherwise it waits for the next time.
+	 *
+	 * @throws IOException
+	 */
+	synchronized void syncIfDue() throws IOException {
+		if (notSynced == 0)
+			return;
+
+		if (System.currentTimeMillis() - lastSync >= durability.maxDelayMillis)
+			sync();
+		else
+			getCommitter().flushLater(lastSync + durability.maxDelayMillis);
+	}
+
+	/**
+	 * syncs first if the given space which it is about to add would overwrite the data the index on disk still has,
+	 * it could not restart from the index otherwise. Removed ones are free in info but not in the index on disk until
+	 * the next sync of GROUP_COMMIT.
+	 *
+	 * @param space
+	 * @param first
+	 *            true if it adds at the left side of the start point
+	 * @throws IOException
+	 */
+	private void syncBeforeOverwrite(long space, boolean first) throws IOException {
+		if (durability.mode != Durability.Mode.GROUP_COMMIT || syncedLength == 0)
+			return;
+
+		long capacity = info.getCapacity();
+		boolean reset = info.size() == 0 && (info.getEnd() == 0 || info.getEnd() == capacity); // starts at 0 again
+		long from;
+		if (first)
+			from = (reset ? capacity : info.getStart()) - space;
+		else
+			from = reset ? 0 : info.getEnd();
+
+		if (overlaps(from, space, syncedStart, syncedLength, capacity))
+			sync();
+	}
+
+	/**
+	 * @return true if the circular ranges [from1, from1 + length1) and [from2, from2 + length2) overlap
+	 */
+	static boolean overlaps(long from1, long length1, long from2, long length2, long capacity) {
+		if (length1 == 0 || length2 == 0)
+			return false;
+		return Math.floorMod(from2 - from1, capacity) < length1 || Math.floorMod(from1 - from2, capacity) < length2;
+	}
+
+	/**
+	 * saves data and then index into the disk physically, see {@link Durability}.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		writer.force(); // data first
+		index.writeAll(info.getStart(), info.size(), info.getEnd());
+		index.force();
+
+		notSynced = 0;
+		lastSync = System.currentTimeMillis();
+		syncedStart = info.getStart();
+		syncedLength = info.length();
 	}
 
 	int readHeader(long[] range) throws IOException {
-		byte[] result = writer.readStorage(range);
-		return ByteUtil.byteToNum(result);
+		writer.readStorage(range, header);
+		return ByteUtil.byteToNum(header, 0);
 	}
 
 	void writeHeader(long[] range, int length) throws IOException {
-		byte[] data = ByteUtil.numToByte(length);
-		writer.writeStorage(range, data);
+		ByteUtil.numToByte(length, header, 0);
+		writer.writeStorage(range, header);
 	}
 
 	void increaseLengthSize(long space) {
+		increaseLengthSize(space, 1);
+	}
+
+	void increaseLengthSize(long space, long count) {
 		length += space;
-		++size;
+		size += count;
 		++changed;
 	}
 
 	void decreaseLengthSize(long space) {
+		decreaseLengthSize(space, 1);
+	}
+
+	void decreaseLengthSize(long space, long count) {
 		length -= space;
-		--size;
+		size -= count;
 		++changed;
 	}
 
@@ -226,10 +775,20 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 	}
 
 	public void close() throws Exception {
+		AsyncCommitter committer;
+		synchronized (this) {
+			committer = this.committer;
+		}
+		if (committer != null)
+			committer.close(); // it needs to lock this to sync
+
+		if (durability.mode != Durability.Mode.NONE)
+			sync();
+
 		writer.close();
 		index.close();
 
-		lock.delete();
+		lock.close();
 	}
 
 	@Override
@@ -294,7 +853,7 @@ public class CircularDiskQueueAndStack implements Queue, Stack {
 
 		bufferMirror.info = (CircularBufferInfo) this.info.clone();
 		try {
-			bufferMirror.writer = this.facotry.createStorageWriter(this.writer.geteFile());
+			bufferMirror.writer = this.facotry.createStorageWriter(this.writer.geteFile(), info.getCapacity());
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -0,0 +1,425 @@
+package cororok.circular_buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cororok.circular_buffer.storage.DefaultDiskWriterFactory;
+import cororok.circular_buffer.storage.DiskWriter;
+import cororok.circular_buffer.storage.DiskWriterFactory;
+import cororok.circular_buffer.storage.IndexWriter;
+
+/**
+ * A thread safe queue which has the same data format and index as {@link CircularDiskQueueAndStack} so either of them
+ * can open the file. Like LinkedBlockingQueue it has two locks, producers(addLast) take the put lock and move the end
+ * point while consumers(removeFirst) take the take lock and move the start point so a producer and a consumer can
+ * read/write the disk at the same time. Each side has its own {@link DiskWriter} because a DiskWriter keeps its own
+ * position.
+ *
+ * The used space and the number of elements are atomic. A producer adds them only after it wrote data and index and a
+ * consumer subtracts them only after it read data and wrote index so one side never touches the space of the other
+ * side. Index is shared so writing index takes a small third lock to keep start, size and end consistent.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class ConcurrentCircularDiskQueue implements Queue {
+	static final int HEADER_SIZE = CircularDiskQueueAndStack.HEADER_SIZE;
+
+	final long capacity;
+
+	private final ReentrantLock putLock = new ReentrantLock();
+	private final ReentrantLock takeLock = new ReentrantLock();
+	private final Object indexLock = new Object();
+
+	/**
+	 * space it is using including header
+	 */
+	private final AtomicLong used = new AtomicLong();
+
+	/**
+	 * total length of data without header
+	 */
+	private final AtomicLong length = new AtomicLong();
+
+	/**
+	 * # of elements it has
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	// guarded by putLock
+	private long end;
+	private final DiskWriter putWriter;
+	private final Range putRange1 = new Range();
+	private final Range putRange2 = new Range();
+	private final byte[] putHeader = new byte[HEADER_SIZE];
+
+	// guarded by takeLock
+	private long start;
+	private final DiskWriter takeWriter;
+	private final Range takeRange1 = new Range();
+	private final Range takeRange2 = new Range();
+	private final byte[] takeHeader = new byte[HEADER_SIZE];
+
+	// guarded by indexLock, what index has now
+	private final IndexWriter index;
+	private long indexStart;
+	private long indexEnd;
+	private long indexCount;
+
+	private final ProcessLock lock;
+
+	public ConcurrentCircularDiskQueue(long capacity, String fileName) throws IOException {
+		this(capacity, fileName, new DefaultDiskWriterFactory());
+	}
+
+	public ConcurrentCircularDiskQueue(long capacity, String fileName, DiskWriterFactory facotry) throws IOException {
+		this.capacity = capacity;
+
+		File dataFile = new File(fileName);
+		boolean fileExists = dataFile.exists(); // before locking it creates the file
+		lock = new ProcessLock(fileName);
+		this.putWriter = facotry.createStorageWriter(dataFile, capacity);
+		this.takeWriter = facotry.createStorageWriter(dataFile, capacity);
+		this.index = facotry.createIndexWriter(new File(fileName + ".index"));
+
+		if (fileExists) { // the same as CircularDiskQueueAndStack
+			long[] startSizeEnd = index.readAll();
+			CircularBufferInfo info = new CircularBufferInfo(capacity, startSizeEnd[0], startSizeEnd[2],
+					startSizeEnd[1]);
+			start = startSizeEnd[0] % capacity; // capacity means 0
+			end = startSizeEnd[2] % capacity;
+			count.set(info.size() / 2); // info counts header and data
+			used.set(info.length());
+			length.set(info.length() - count.get() * HEADER_SIZE);
+		}
+		indexStart = start;
+		indexEnd = end;
+		indexCount = count.get();
+	}
+
+	@Override
+	public void addLast(final byte[] bs) throws IOException {
+		if (bs == null || bs.length == 0)
+			throw new RuntimeException("empty input data");
+
+		final long space = HEADER_SIZE + bs.length;
+		putLock.lock();
+		try {
+			if (capacity - used.get() < space)
+				throw new IOException("no more sapce");
+
+			long[] headerRange = rangeFrom(end, HEADER_SIZE, putRange1);
+			long[] dataRange = rangeFrom((end + HEADER_SIZE) % capacity, bs.length, putRange2);
+			ByteUtil.numToByte(bs.length, putHeader, 0);
+			putWriter.writeStorage(headerRange, putHeader, dataRange, bs);
+
+			long newEnd = (end + space) % capacity;
+			writeIndexEnd(newEnd, 1);
+			end = newEnd;
+			published(space, bs.length, 1);
+		} finally {
+			putLock.unlock();
+		}
+	}
+
+	@Override
+	public void addLastBatch(final List<byte[]> list) throws IOException {
+		if (list.isEmpty())
+			return;
+
+		long total = 0;
+		for (byte[] bs : list) {
+			if (bs == null || bs.length == 0)
+				throw new RuntimeException("empty input data");
+			total += HEADER_SIZE + bs.length;
+		}
+		if (total > Integer.MAX_VALUE)
+			throw new RuntimeException("too big batch " + total);
+
+		byte[] frames = new byte[(int) total];
+		int offset = 0;
+		for (byte[] bs : list) {
+			ByteUtil.numToByte(bs.length, frames, offset);
+			System.arraycopy(bs, 0, frames, offset + HEADER_SIZE, bs.length);
+			offset += HEADER_SIZE + bs.length;
+		}
+
+		putLock.lock();
+		try {
+			if (capacity - used.get() < total)
+				throw new IOException("no more sapce");
+
+			putWriter.writeStorage(rangeFrom(end, total, putRange1), frames);
+
+			long newEnd = (end + total) % capacity;
+			writeIndexEnd(newEnd, list.size());
+			end = newEnd;
+			published(total, total - (long) list.size() * HEADER_SIZE, list.size());
+		} finally {
+			putLock.unlock();
+		}
+	}
+
+	/*
+	 * after data and index were written, consumers can see it from now.
+	 */
+	private void published(long space, long dataLength, long added) {
+		used.addAndGet(space);
+		length.addAndGet(dataLength);
+		count.addAndGet(added);
+	}
+
+	@Override
+	public byte[] removeFirst() throws IOException {
+		takeLock.lock();
+		try {
+			if (count.get() == 0)
+				throw new NoSuchElementException();
+
+			long oldStart = start;
+			try {
+				long[] dataRange = readFirstRange();
+				byte[] result = takeWriter.readStorage(dataRange);
+				writeIndexStart(start, 1);
+				removed(result.length, 1);
+				return result;
+			} catch (Throwable e) {
+				start = oldStart;
+				throw e;
+			}
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	@Override
+	public int removeFirst(ByteBuffer dst) throws IOException {
+		takeLock.lock();
+		try {
+			if (count.get() == 0)
+				throw new NoSuchElementException();
+
+			long oldStart = start;
+			try {
+				long[] dataRange = readFirstRange();
+				int dataLength = (int) CircularDiskQueueAndStack.lengthOf(dataRange);
+				if (dst.remaining() < dataLength) {
+					start = oldStart;
+					return -dataLength;
+				}
+
+				takeWriter.readStorage(dataRange, dst);
+				writeIndexStart(start, 1);
+				removed(dataLength, 1);
+				return dataLength;
+			} catch (Throwable e) {
+				start = oldStart;
+				throw e;
+			}
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	@Override
+	public byte[] peekFirst() throws IOException {
+		takeLock.lock();
+		try {
+			if (count.get() == 0)
+				return null;
+
+			long oldStart = start;
+			try {
+				return takeWriter.readStorage(readFirstRange());
+			} finally {
+				start = oldStart; // because read only
+			}
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	@Override
+	public int peekFirst(ByteBuffer dst) throws IOException {
+		takeLock.lock();
+		try {
+			if (count.get() == 0)
+				return 0;
+
+			long oldStart = start;
+			try {
+				long[] dataRange = readFirstRange();
+				int dataLength = (int) CircularDiskQueueAndStack.lengthOf(dataRange);
+				if (dst.remaining() < dataLength)
+					return -dataLength;
+
+				takeWriter.readStorage(dataRange, dst);
+				return dataLength;
+			} finally {
+				start = oldStart; // because read only
+			}
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	@Override
+	public List<byte[]> drain(int maxElements) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, maxElements, Long.MAX_VALUE);
+		return result;
+	}
+
+	@Override
+	public int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException {
+		return drainTo(c, maxElements, Long.MAX_VALUE);
+	}
+
+	@Override
+	public List<byte[]> drainBytes(long maxBytes) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, Integer.MAX_VALUE, maxBytes);
+		return result;
+	}
+
+	/**
+	 * see {@link CircularDiskQueueAndStack#drainBytes(long)}, it writes index once at the end.
+	 */
+	private int drainTo(Collection<? super byte[]> c, int maxElements, long maxBytes) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		long removedLength = 0;
+		takeLock.lock();
+		final long startOri = start;
+		try {
+			final long available = count.get(); // producers may add more but it does not matter
+			while (result.size() < maxElements && result.size() < available) {
+				long oldStart = start;
+				long[] dataRange = readFirstRange();
+				long dataLength = CircularDiskQueueAndStack.lengthOf(dataRange);
+				if (removedLength + dataLength > maxBytes && result.isEmpty() == false) {
+					start = oldStart;
+					break;
+				}
+
+				result.add(takeWriter.readStorage(dataRange));
+				removedLength += dataLength;
+			}
+
+			if (result.isEmpty() == false) {
+				writeIndexStart(start, result.size());
+				removed(removedLength, result.size());
+			}
+		} catch (Throwable e) {
+			start = startOri;
+			throw e;
+		} finally {
+			takeLock.unlock();
+		}
+
+		c.addAll(result);
+		return result.size();
+	}
+
+	/**
+	 * reads the header of the first one and moves the start point to the end of the first one.
+	 *
+	 * @return range of data of the first one
+	 * @throws IOException
+	 */
+	private long[] readFirstRange() throws IOException {
+		takeWriter.readStorage(rangeFrom(start, HEADER_SIZE, takeRange1), takeHeader);
+		int dataLength = ByteUtil.byteToNum(takeHeader, 0);
+		if (dataLength <= 0 || dataLength > used.get())
+			throw new IOException("wrong header " + dataLength + " at " + start);
+
+		long[] dataRange = rangeFrom((start + HEADER_SIZE) % capacity, dataLength, takeRange2);
+		start = (start + HEADER_SIZE + dataLength) % capacity;
+		return dataRange;
+	}
+
+	/*
+	 * after data was read and index was written, producers can reuse the space from now.
+	 */
+	private void removed(long dataLength, long removed) {
+		length.addAndGet(-dataLength);
+		count.addAndGet(-removed);
+		used.addAndGet(-(dataLength + removed * HEADER_SIZE));
+	}
+
+	/**
+	 * @param from
+	 *            less than capacity
+	 * @param space
+	 * @param out
+	 * @return {from, to} or {from1, capacity, 0, to2} if it goes over the capacity
+	 */
+	private long[] rangeFrom(long from, long space, Range out) {
+		long to = from + space;
+		if (to <= capacity)
+			return out.of(from, to);
+		return out.of(from, capacity, 0, to - capacity);
+	}
+
+	private void writeIndexStart(long newStart, long removed) throws IOException {
+		synchronized (indexLock) {
+			index.writeAll(newStart, (indexCount - removed) * 2, indexEnd); // 2 because index counts header and data
+			indexStart = newStart;
+			indexCount -= removed;
+		}
+	}
+
+	private void writeIndexEnd(long newEnd, long added) throws IOException {
+		synchronized (indexLock) {
+			index.writeAll(indexStart, (indexCount + added) * 2, newEnd);
+			indexEnd = newEnd;
+			indexCount += added;
+		}
+	}
+
+	@Override
+	public long size() {
+		return count.get();
+	}
+
+	@Override
+	public long length() {
+		return length.get();
+	}
+
+	@Override
+	public long lengthOfStorage() {
+		return used.get();
+	}
+
+	@Override
+	public long getAvailableTotalSpace() {
+		return capacity - used.get();
+	}
+
+	@Override
+	public long getAvailableSpace() {
+		return getAvailableTotalSpace() - HEADER_SIZE;
+	}
+
+	@Override
+	public void close() throws Exception {
+		putLock.lock();
+		takeLock.lock();
+		try {
+			putWriter.close();
+			takeWriter.close();
+			index.close();
+
+			lock.close();
+		} finally {
+			takeLock.unlock();
+			putLock.unlock();
+		}
+	}
+}
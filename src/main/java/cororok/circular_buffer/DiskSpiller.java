@@ -0,0 +1,35 @@
+package cororok.circular_buffer;
+
+import java.util.List;
+
+/**
+ * A background thread of
+ * {@link BufferedCircularDiskStack#BufferedCircularDiskStack(CircularDiskQueueAndStack, long, long)}. It moves the
+ * oldest ones in memory to the disk whenever memory has more than maxMemory so addFirst does not write the disk. It
+ * stops when the stack is closed or it fails to write.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+class DiskSpiller extends Thread {
+
+	private final BufferedCircularDiskStack stack;
+
+	DiskSpiller(BufferedCircularDiskStack stack) {
+		super("circular-disk-spiller");
+		setDaemon(true);
+		this.stack = stack;
+	}
+
+	@Override
+	public void run() {
+		try {
+			List<byte[]> list;
+			while ((list = stack.nextSpill()) != null) {
+				if (stack.spill(list) == false)
+					return;
+			}
+		} catch (InterruptedException e) {
+			// stops, close moves the rest
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package cororok.circular_buffer;
+
+/**
+ * When it saves data and index into the disk physically(fsync). Without fsync OS decides when so the data can be lost
+ * when OS crashes but fsync is much slower than write.
+ *
+ * <ul>
+ * <li>NONE: never, depends on OS. It is the default.</li>
+ * <li>EVERY_OP: every add/remove. It saves data first then index so index never points data which is not saved.</li>
+ * <li>GROUP_COMMIT: once every maxOps add/remove or maxDelayMillis after the last sync whichever comes first. Index is
+ * written only at sync after data is saved so it may lose(add) or repeat(remove) operations after the last sync when it
+ * crashes. A background thread syncs them when maxDelayMillis has passed even if it is idle. It syncs before it
+ * overwrites removed ones which the index on disk still has so the index never points overwritten data.</li>
+ * <li>ON_CLOSE: only when it is closed.</li>
+ * </ul>
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class Durability {
+
+	public enum Mode {
+		NONE, EVERY_OP, GROUP_COMMIT, ON_CLOSE
+	}
+
+	public static final Durability NONE = new Durability(Mode.NONE, 0, 0);
+	public static final Durability EVERY_OP = new Durability(Mode.EVERY_OP, 1, 0);
+	public static final Durability ON_CLOSE = new Durability(Mode.ON_CLOSE, 0, 0);
+
+	final Mode mode;
+	final int maxOps;
+	final long maxDelayMillis;
+
+	private Durability(Mode mode, int maxOps, long maxDelayMillis) {
+		this.mode = mode;
+		this.maxOps = maxOps;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @param maxOps
+	 *            it syncs after this number of add/remove
+	 * @param maxDelayMillis
+	 *            it syncs if this time has passed since the last sync
+	 * @return GROUP_COMMIT
+	 */
+	public static Durability groupCommit(int maxOps, long maxDelayMillis) {
+		if (maxOps <= 0 || maxDelayMillis < 0)
+			throw new IllegalArgumentException("wrong group commit " + maxOps + ", " + maxDelayMillis);
+		return new Durability(Mode.GROUP_COMMIT, maxOps, maxDelayMillis);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public int getMaxOps() {
+		return maxOps;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "Durability [mode=" + mode + ", maxOps=" + maxOps + ", maxDelayMillis=" + maxDelayMillis + "]";
+	}
+}
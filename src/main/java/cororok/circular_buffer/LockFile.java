@@ -0,0 +1,74 @@
+package cororok.circular_buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * fileName.lock opened once per process. OS file locks belong to a process not to a descriptor and POSIX releases all
+ * the locks of a process on a file when any descriptor of the file is closed, so if two instances opened the lock file
+ * by themselves closing one would release the locks of the other. All the instances of this process opening the same
+ * file share a single channel and the last one closes it.
+ *
+ * Only the file locks of {@link ProcessLock} and {@link MappedCircularDiskQueue} are taken on it, nothing else opens
+ * it.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+class LockFile implements AutoCloseable {
+
+	/**
+	 * by canonical path, guarded by itself
+	 */
+	private static final Map<String, LockFile> OPENED = new HashMap<>();
+
+	private final String path;
+	final FileChannel channel;
+
+	/**
+	 * # of instances using it, guarded by OPENED
+	 */
+	private int count;
+
+	private LockFile(String path, FileChannel channel) {
+		this.path = path;
+		this.channel = channel;
+	}
+
+	/**
+	 * @param fileName
+	 *            data file, it opens fileName.lock
+	 * @return the one this process opened already or a new one
+	 * @throws IOException
+	 */
+	static LockFile open(String fileName) throws IOException {
+		String path = new File(fileName + ".lock").getCanonicalPath();
+		synchronized (OPENED) {
+			LockFile result = OPENED.get(path);
+			if (result == null) {
+				FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+				result = new LockFile(path, channel);
+				OPENED.put(path, result);
+			}
+			result.count++;
+			return result;
+		}
+	}
+
+	/*
+	 * release own locks before this, the channel is closed only when nobody uses it.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (OPENED) {
+			if (--count > 0)
+				return;
+			OPENED.remove(path);
+			channel.close();
+		}
+	}
+}
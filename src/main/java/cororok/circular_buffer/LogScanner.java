@@ -0,0 +1,256 @@
+package cororok.circular_buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import cororok.circular_buffer.storage.DiskWriter;
+import cororok.circular_buffer.storage.DiskWriterFactory;
+
+/**
+ * A thread which finds the frames of {@link LoggedCircularDiskQueue} in a chunk of the data file without the index,
+ * see {@link #scan(long, File, DiskWriterFactory, int, long)}.
+ *
+ * The sequence in every frame header is its sync marker. It is the position of the frame since the file was created so
+ * the frame at a position of the file has a sequence which is the position modulo capacity. A thread starting in the
+ * middle of a frame moves byte by byte until the header, sequence and crc are right and then it jumps frame by frame.
+ * The frames whose sequences continue make a chain and the chains of all the chunks are joined by their sequences.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+class LogScanner extends Thread {
+	static final int BUFFER_SIZE = 1024 * 1024;
+	static final int HEADER_SIZE = LoggedCircularDiskQueue.LOG_HEADER_SIZE;
+
+	/**
+	 * frames whose sequences continue
+	 */
+	static class Chain {
+		long first; // sequence of the first frame
+		long end; // sequence of the next frame
+		long count;
+
+		/**
+		 * true if it has the frame of fromSequence
+		 */
+		boolean hasFrom;
+		long countFrom; // # of frames from the frame of fromSequence
+
+		Chain(long first) {
+			this.first = first;
+			this.end = first;
+		}
+	}
+
+	private final long capacity;
+	private final File dataFile;
+	private final DiskWriterFactory facotry;
+	private final long chunkStart;
+	private final long chunkEnd;
+	private final long scanEnd;
+	private final long fromSequence;
+
+	final List<Chain> chains = new ArrayList<>();
+	IOException error;
+
+	private DiskWriter reader;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private long bufferStart;
+	private int bufferLength;
+	private final byte[] header = new byte[HEADER_SIZE];
+	private final CRC32 crc = new CRC32();
+
+	// what load read
+	private byte[] bytes;
+	private int offset;
+
+	// of the frame frameAt found
+	private long sequence;
+
+	/**
+	 * @param capacity
+	 * @param dataFile
+	 * @param facotry
+	 *            to create its own reader
+	 * @param chunkStart
+	 * @param chunkEnd
+	 *            it finds the frames starting before this
+	 * @param scanEnd
+	 *            where the file ends
+	 * @param fromSequence
+	 *            see {@link Chain#countFrom}
+	 */
+	LogScanner(long capacity, File dataFile, DiskWriterFactory facotry, long chunkStart, long chunkEnd, long scanEnd,
+			long fromSequence) {
+		super("circular-disk-scanner");
+		setDaemon(true);
+		this.capacity = capacity;
+		this.dataFile = dataFile;
+		this.facotry = facotry;
+		this.chunkStart = chunkStart;
+		this.chunkEnd = chunkEnd;
+		this.scanEnd = scanEnd;
+		this.fromSequence = fromSequence;
+	}
+
+	/**
+	 * finds the newest frames of the given data file by the given # of threads.
+	 *
+	 * @param capacity
+	 * @param dataFile
+	 * @param facotry
+	 * @param threads
+	 * @param fromSequence
+	 *            the first frame if it is one of the newest frames, usually the start point of a stale index
+	 * @return {sequence of the first frame, sequence after the last frame, # of frames}
+	 * @throws IOException
+	 */
+	static long[] scan(long capacity, File dataFile, DiskWriterFactory facotry, int threads, long fromSequence)
+			throws IOException {
+		long scanEnd = Math.min(capacity, dataFile.length());
+		long chunkSize = Math.max(1, (scanEnd + threads - 1) / Math.max(1, threads));
+
+		List<LogScanner> scanners = new ArrayList<>();
+		for (long from = 0; from < scanEnd; from += chunkSize) {
+			LogScanner scanner = new LogScanner(capacity, dataFile, facotry, from, Math.min(from + chunkSize, scanEnd),
+					scanEnd, fromSequence);
+			scanners.add(scanner);
+			scanner.start();
+		}
+
+		List<Chain> chains = new ArrayList<>();
+		try {
+			for (LogScanner scanner : scanners) {
+				scanner.join();
+				if (scanner.error != null)
+					throw scanner.error;
+				chains.addAll(scanner.chains);
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while scanning " + dataFile);
+		}
+		return join(chains, capacity, fromSequence);
+	}
+
+	/**
+	 * joins the chain which has the newest frame and the chains before it while they continue.
+	 *
+	 * @return see {@link #scan(long, File, DiskWriterFactory, int, long)}
+	 */
+	static long[] join(List<Chain> chains, long capacity, long fromSequence) {
+		if (chains.isEmpty())
+			return new long[] { 0, 0, 0 };
+
+		Map<Long, Chain> chainOfEnd = new HashMap<>();
+		Chain last = null;
+		for (Chain chain : chains) {
+			chainOfEnd.put(chain.end, chain);
+			if (last == null || chain.end > last.end)
+				last = chain;
+		}
+
+		long end = last.end;
+		if (fromSequence == end) // removed all
+			return new long[] { end, end, 0 };
+
+		long count = 0;
+		Chain chain = last;
+		while (true) {
+			if (chain.hasFrom)
+				return new long[] { fromSequence, end, count + chain.countFrom };
+
+			count += chain.count;
+			Chain previous = chainOfEnd.get(chain.first);
+			if (previous == null || end - previous.first > capacity)
+				return new long[] { chain.first, end, count };
+			chain = previous;
+		}
+	}
+
+	@Override
+	public void run() {
+		try (DiskWriter reader = facotry.createStorageWriter(dataFile, capacity)) {
+			this.reader = reader;
+			Chain chain = null;
+			long position = chunkStart;
+			while (position < chunkEnd) {
+				int length = frameAt(position);
+				if (length < 0) { // not a frame, next byte
+					chain = null;
+					++position;
+					continue;
+				}
+
+				if (chain == null || chain.end != sequence) {
+					chain = new Chain(sequence);
+					chains.add(chain);
+				}
+				if (sequence == fromSequence)
+					chain.hasFrom = true;
+				if (chain.hasFrom)
+					++chain.countFrom;
+				chain.end += HEADER_SIZE + length;
+				++chain.count;
+
+				position += HEADER_SIZE + length;
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (Exception e) {
+			error = new IOException(e);
+		}
+	}
+
+	/**
+	 * @param position
+	 * @return length of the data if a right frame starts at the given position, -1 otherwise
+	 * @throws IOException
+	 */
+	int frameAt(long position) throws IOException {
+		load(position, HEADER_SIZE);
+		long sequence = ByteUtil.byteToLong(bytes, offset + 8);
+		int length = ByteUtil.byteToNum(bytes, offset);
+		if (sequence < 0 || sequence % capacity != position || length <= 0 || length > capacity - HEADER_SIZE)
+			return -1;
+
+		System.arraycopy(bytes, offset, header, 0, HEADER_SIZE);
+		load(position + HEADER_SIZE, length);
+		if (ByteUtil.byteToNum(header, 4) != LoggedCircularDiskQueue.crcOf(crc, header, 0, bytes, offset, length))
+			return -1;
+
+		this.sequence = sequence;
+		return length;
+	}
+
+	/**
+	 * makes the given range of the file ready at bytes[offset], from the buffer if it fits otherwise from the file.
+	 */
+	private void load(long position, int length) throws IOException {
+		if (position >= capacity)
+			position -= capacity;
+
+		if (length > buffer.length || position + length > scanEnd) { // big, wraps around or beyond the file
+			long[] range;
+			if (position + length <= capacity)
+				range = new long[] { position, position + length };
+			else
+				range = new long[] { position, capacity, 0, position + length - capacity };
+			bytes = reader.readStorage(range);
+			offset = 0;
+			return;
+		}
+
+		if (position < bufferStart || position + length > bufferStart + bufferLength) {
+			bufferStart = position;
+			bufferLength = (int) Math.min(buffer.length, scanEnd - position);
+			reader.readStorage(new long[] { position, position + bufferLength }, buffer);
+		}
+		bytes = buffer;
+		offset = (int) (position - bufferStart);
+	}
+}
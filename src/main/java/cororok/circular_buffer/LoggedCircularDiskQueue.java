@@ -0,0 +1,450 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import cororok.circular_buffer.storage.DefaultDiskWriterFactory;
+import cororok.circular_buffer.storage.DiskWriterFactory;
+
+/**
+ * A queue(addLast & removeFirst) which writes the index only every checkpointOps add/remove or checkpointMillis instead
+ * of every time, so add/remove writes the data only. It is a {@link Queue} only, the frames are in the order of their
+ * sequence so nothing can be added before the first one.
+ *
+ * To restart without the index of the last ones each frame describes itself, [length][crc][sequence][binary data]. The
+ * [length] is 4 bytes like {@link CircularDiskQueueAndStack}, the [crc] is 4 bytes CRC32 of a magic, length, sequence
+ * and data and the [sequence] is 8 bytes, how many bytes it had added before the frame. The index keeps the sequence of
+ * its end point so when it opens it reads the index and then adds the frames after the end point one by one while
+ * their sequence and crc are right. A stale or torn frame stops it.
+ *
+ * Removed ones after the last checkpoint come back when it restarts without {@link #close()}, like
+ * {@link Durability#groupCommit(int, long)}. It writes the index before it overwrites the space of the checkpoint so
+ * the checkpoint always has valid frames.
+ *
+ * When the index is missing or stale it can rebuild the index from the data file only by several threads, see
+ * {@link LogScanner}. Removed ones come back too in that case unless the start point of the index is still right.
+ *
+ * The data format is different from {@link CircularDiskQueueAndStack} so it can not open a file of it.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class LoggedCircularDiskQueue implements Queue {
+	static final int LOG_HEADER_SIZE = 4 + 4 + 8; // length, crc and sequence
+	static final int DEFAULT_CHECKPOINT_OPS = 10_000;
+	static final long DEFAULT_CHECKPOINT_MILLIS = 1000;
+	static final byte[] MAGIC = "CDBLog01".getBytes(StandardCharsets.US_ASCII);
+
+	final Log log;
+
+	public LoggedCircularDiskQueue(long capacity, String fileName) throws IOException {
+		this(capacity, fileName, new DefaultDiskWriterFactory(), DEFAULT_CHECKPOINT_OPS, DEFAULT_CHECKPOINT_MILLIS);
+	}
+
+	/**
+	 * @param capacity
+	 * @param fileName
+	 * @param facotry
+	 * @param checkpointOps
+	 *            it writes the index after this many add/remove
+	 * @param checkpointMillis
+	 *            or when this time has passed since the last one
+	 * @throws IOException
+	 */
+	public LoggedCircularDiskQueue(long capacity, String fileName, DiskWriterFactory facotry, int checkpointOps,
+			long checkpointMillis) throws IOException {
+		this(capacity, fileName, facotry, checkpointOps, checkpointMillis, 0);
+	}
+
+	/**
+	 * @param capacity
+	 * @param fileName
+	 * @param facotry
+	 * @param checkpointOps
+	 * @param checkpointMillis
+	 * @param recoveryThreads
+	 *            if it is bigger than 0 it rebuilds the index from the data file by this many threads instead of
+	 *            reading the index, 0 to read the index and the frames after it only
+	 * @throws IOException
+	 */
+	public LoggedCircularDiskQueue(long capacity, String fileName, DiskWriterFactory facotry, int checkpointOps,
+			long checkpointMillis, int recoveryThreads) throws IOException {
+		this.log = new Log(capacity, fileName, facotry, checkpointOps, checkpointMillis, recoveryThreads);
+	}
+
+	/**
+	 * rebuilds the index of the given data file from its frames and saves it, for a file whose index is missing or
+	 * stale. It is the same as opening it with recoveryThreads and closing it.
+	 *
+	 * @param capacity
+	 * @param fileName
+	 * @param facotry
+	 * @param threads
+	 * @throws Exception
+	 */
+	public static void rebuildIndex(long capacity, String fileName, DiskWriterFactory facotry, int threads)
+			throws Exception {
+		try (LoggedCircularDiskQueue queue = new LoggedCircularDiskQueue(capacity, fileName, facotry,
+				DEFAULT_CHECKPOINT_OPS, DEFAULT_CHECKPOINT_MILLIS, threads)) {
+			queue.sync();
+		}
+	}
+
+	/**
+	 * @return CRC32 of the magic, length and sequence of the given header and the given data
+	 */
+	static int crcOf(CRC32 crc, byte[] header, int headerOffset, byte[] data, int offset, int length) {
+		crc.reset();
+		crc.update(MAGIC);
+		crc.update(header, headerOffset, 4);
+		crc.update(header, headerOffset + 8, 8);
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
+	}
+
+	@Override
+	public void addLast(byte[] bs) throws IOException {
+		log.addLast(bs);
+	}
+
+	@Override
+	public void addLastBatch(List<byte[]> list) throws IOException {
+		log.addLastBatch(list);
+	}
+
+	@Override
+	public byte[] removeFirst() throws IOException {
+		return log.removeFirst();
+	}
+
+	@Override
+	public byte[] peekFirst() throws IOException {
+		return log.peekFirst();
+	}
+
+	@Override
+	public int removeFirst(ByteBuffer dst) throws IOException {
+		return log.removeFirst(dst);
+	}
+
+	@Override
+	public int peekFirst(ByteBuffer dst) throws IOException {
+		return log.peekFirst(dst);
+	}
+
+	@Override
+	public List<byte[]> drain(int maxElements) throws IOException {
+		return log.drain(maxElements);
+	}
+
+	@Override
+	public int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException {
+		return log.drainTo(c, maxElements);
+	}
+
+	@Override
+	public List<byte[]> drainBytes(long maxBytes) throws IOException {
+		return log.drainBytes(maxBytes);
+	}
+
+	/**
+	 * see {@link CircularDiskQueueAndStack#transferFirstTo(WritableByteChannel, int)}
+	 */
+	public int transferFirstTo(WritableByteChannel target, int maxElements) throws IOException {
+		return log.transferFirstTo(target, maxElements);
+	}
+
+	/**
+	 * see {@link CircularDiskQueueAndStack#peekFirstView()}
+	 */
+	public ByteBuffer peekFirstView() throws IOException {
+		return log.peekFirstView();
+	}
+
+	/**
+	 * it reads data from first to last, see {@link CircularDiskQueueAndStack#iter()}
+	 */
+	public AutoCloseableIter iter() {
+		return log.iter();
+	}
+
+	/**
+	 * writes the index with the sequence, it does not force them into the disk, see {@link #sync()}.
+	 *
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		log.checkpoint();
+	}
+
+	/**
+	 * saves data and then the index into the disk physically.
+	 *
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		log.sync();
+	}
+
+	@Override
+	public long size() {
+		return log.size();
+	}
+
+	@Override
+	public long length() {
+		return log.length();
+	}
+
+	@Override
+	public long lengthOfStorage() {
+		return log.lengthOfStorage();
+	}
+
+	@Override
+	public long getAvailableTotalSpace() {
+		return log.getAvailableTotalSpace();
+	}
+
+	@Override
+	public long getAvailableSpace() {
+		return log.getAvailableSpace();
+	}
+
+	public int getHeaderSize() {
+		return LOG_HEADER_SIZE;
+	}
+
+	@Override
+	public void close() throws Exception {
+		log.close();
+	}
+
+	/**
+	 * the frames and the checkpoints on top of {@link CircularDiskQueueAndStack}. It is hidden so only addLast and
+	 * removeFirst of it are used.
+	 */
+	static class Log extends CircularDiskQueueAndStack {
+		private int checkpointOps;
+		private long checkpointMillis;
+
+		/**
+		 * bytes it has added since the file was created, it is the sequence of the next frame.
+		 */
+		long sequence;
+
+		/**
+		 * sequence of the start point of the last checkpoint
+		 */
+		long checkpointStart;
+
+		private final byte[] logHeader = new byte[LOG_HEADER_SIZE];
+		private final CRC32 crc = new CRC32();
+
+		Log(long capacity, String fileName, DiskWriterFactory facotry, int checkpointOps, long checkpointMillis,
+				int recoveryThreads) throws IOException {
+			super(capacity, fileName, facotry);
+			this.checkpointOps = checkpointOps;
+			this.checkpointMillis = checkpointMillis;
+
+			this.sequence = index.readSequence();
+			if (recoveryThreads > 0) {
+				rebuild(recoveryThreads);
+			} else if (rollForward() > 0) {
+				initSizeAndLength();
+				checkpoint();
+			}
+			this.checkpointStart = sequence - info.length();
+		}
+
+		Log() {
+		}
+
+		/**
+		 * adds the frames after the end point of the index while they are right.
+		 *
+		 * @return # of frames it added
+		 * @throws IOException
+		 */
+		int rollForward() throws IOException {
+			int count = 0;
+			while (info.canAdd(LOG_HEADER_SIZE)) {
+				info.backupStatus();
+				Arrays.fill(logHeader, (byte) 0); // the file can be shorter
+				writer.readStorage(info.addLast(LOG_HEADER_SIZE, 1, range1), logHeader);
+				int length = ByteUtil.byteToNum(logHeader, 0);
+				if (ByteUtil.byteToLong(logHeader, 8) != sequence || length <= 0 || info.canAdd(length) == false) {
+					info.rollback();
+					break;
+				}
+
+				byte[] data = writer.readStorage(info.addLast(length, 1, range2));
+				if (ByteUtil.byteToNum(logHeader, 4) != crcOf(logHeader, 0, data)) {
+					info.rollback();
+					break;
+				}
+				sequence += LOG_HEADER_SIZE + length;
+				++count;
+			}
+			return count;
+		}
+
+		/**
+		 * rebuilds info from the frames of the data file, see {@link LogScanner}. The start point of the index is
+		 * kept if it is still one of the frames.
+		 *
+		 * @param threads
+		 * @throws IOException
+		 */
+		void rebuild(int threads) throws IOException {
+			long capacity = info.getCapacity();
+			long[] startEndCount = LogScanner.scan(capacity, writer.geteFile(), facotry, threads,
+					sequence - info.length());
+
+			this.info = new CircularBufferInfo(capacity, startEndCount[0] % capacity, startEndCount[1] % capacity,
+					startEndCount[2] * getPiecesPerElement());
+			this.sequence = startEndCount[1];
+			initSizeAndLength();
+			checkpoint();
+		}
+
+		@Override
+		public synchronized void addLast(final byte[] bs) throws IOException {
+			if (bs != null)
+				checkpointBeforeOverwrite(LOG_HEADER_SIZE + bs.length);
+
+			long sequence = this.sequence;
+			try {
+				super.addLast(bs);
+			} catch (Throwable e) {
+				this.sequence = sequence;
+				throw e;
+			}
+		}
+
+		@Override
+		public synchronized void addLastBatch(final List<byte[]> list) throws IOException {
+			long space = 0;
+			for (byte[] bs : list) {
+				if (bs != null)
+					space += LOG_HEADER_SIZE + bs.length;
+			}
+			checkpointBeforeOverwrite(space);
+
+			long sequence = this.sequence;
+			try {
+				super.addLastBatch(list);
+			} catch (Throwable e) {
+				this.sequence = sequence;
+				throw e;
+			}
+		}
+
+		/**
+		 * writes the index if the given space would overwrite any frame of the last checkpoint, it can not restart
+		 * from the checkpoint otherwise.
+		 */
+		private void checkpointBeforeOverwrite(long space) throws IOException {
+			if (sequence + space - checkpointStart > info.getCapacity())
+				checkpoint();
+		}
+
+		@Override
+		protected void writeLast(final byte[] bs) throws IOException {
+			// header first, data later
+			long[] headerRange = info.addLast(LOG_HEADER_SIZE, 1, range1);
+			long[] dataRange = info.addLast(bs.length, 1, range2);
+			putLogHeader(logHeader, 0, bs);
+			writer.writeStorage(headerRange, logHeader, dataRange, bs);
+		}
+
+		@Override
+		int putFrame(byte[] frames, int offset, final byte[] bs) throws IOException {
+			putLogHeader(frames, offset, bs);
+			System.arraycopy(bs, 0, frames, offset + LOG_HEADER_SIZE, bs.length);
+			return offset + LOG_HEADER_SIZE + bs.length;
+		}
+
+		/**
+		 * puts [length][crc][sequence] of the given data and moves the sequence to the next frame.
+		 */
+		private void putLogHeader(byte[] frames, int offset, final byte[] bs) {
+			ByteUtil.numToByte(bs.length, frames, offset);
+			ByteUtil.longToByte(sequence, frames, offset + 8);
+			ByteUtil.numToByte(crcOf(frames, offset, bs), frames, offset + 4);
+			sequence += LOG_HEADER_SIZE + bs.length;
+		}
+
+		private int crcOf(byte[] header, int offset, byte[] data) {
+			return LoggedCircularDiskQueue.crcOf(crc, header, offset, data, 0, data.length);
+		}
+
+		@Override
+		long[] removeFirstRange() throws IOException {
+			writer.readStorage(info.removeFirst(LOG_HEADER_SIZE, 1, range1), logHeader);
+			return removeFirstData(ByteUtil.byteToNum(logHeader, 0));
+		}
+
+		@Override
+		void writeIndexStart() throws IOException {
+			checkpointIfDue();
+		}
+
+		@Override
+		void writeIndexEnd() throws IOException {
+			checkpointIfDue();
+		}
+
+		private void checkpointIfDue() throws IOException {
+			++notSynced;
+			if (notSynced >= checkpointOps || System.currentTimeMillis() - lastSync >= checkpointMillis)
+				checkpoint();
+		}
+
+		synchronized void checkpoint() throws IOException {
+			index.writeAll(info.getStart(), info.size(), info.getEnd(), sequence);
+			checkpointStart = sequence - info.length();
+
+			notSynced = 0;
+			lastSync = System.currentTimeMillis();
+		}
+
+		@Override
+		public synchronized void sync() throws IOException {
+			writer.force(); // data first
+			checkpoint();
+			index.force();
+		}
+
+		@Override
+		public void close() throws Exception {
+			checkpoint();
+			super.close();
+		}
+
+		@Override
+		int getLeadingHeaderSize() {
+			return LOG_HEADER_SIZE;
+		}
+
+		@Override
+		public int getHeaderSize() {
+			return LOG_HEADER_SIZE;
+		}
+
+		@Override
+		public long getAvailableSpace() {
+			return info.getAvailableSpace() - LOG_HEADER_SIZE;
+		}
+
+		@Override
+		protected CircularDiskQueueAndStack createDummy() {
+			return new Log();
+		}
+	}
+}
@@ -0,0 +1,510 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cororok.circular_buffer.storage.MappedMemory;
+
+/**
+ * A queue over a memory mapped file whose head(where it reads) and tail(where it writes) are kept in the header of the
+ * file instead of {@link cororok.circular_buffer.storage.IndexWriter} and published by ordered writes so adding and
+ * removing are memory copies without any system call.
+ *
+ * <pre>
+ * 0   capacity
+ * 8   type, a subclass has its own frame format
+ * 64  head, total bytes removed so far
+ * 72  # of elements removed so far
+ * 80  total length of data removed so far
+ * 128 tail, total bytes added(reserved) so far
+ * 136 # of elements added so far
+ * 144 total length of data added so far
+ * 192 data
+ * </pre>
+ *
+ * head and tail only grow so tail - head is the used space and they are in different cache lines so producers and the
+ * consumer do not invalidate each other. It has a single consumer, a subclass decides how producers add frames. The
+ * consumer moves its own head while it reads and publishes it only in {@link #release(long, long)} so draining many of
+ * them publishes once.
+ *
+ * When it is shared several processes map the same file, see
+ * {@link MpscCircularDiskQueue#MpscCircularDiskQueue(long, String, boolean, boolean)}. Instead of
+ * {@link ProcessLock} every process holds a file lock of its own byte in the alive area of fileName.lock while it is
+ * open so the one opening it knows if it is alone. The locks are taken on the channel of {@link LockFile} which all the
+ * instances of a process share, not on the data file, so closing one instance does not release the locks of the
+ * others. Only checking the header and recovering frames,
+ * which happens only when it is alone, take the init lock, the rest are atomic operations on the header. The consumer
+ * holds the consumer lock so only one process can remove. OS releases these locks when a process dies.
+ *
+ * The two modes exclude each other because either of them recovers frames as if it were alone. One opened only for
+ * its process holds the whole alive area as well as {@link ProcessLock} until it is closed, and a shared one does not
+ * open while {@link ProcessLock} is held.
+ *
+ * The capacity can not be bigger than 2G - 192 because it maps the whole file at once.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public abstract class MappedCircularDiskQueue implements Queue {
+	static final int HEADER_SIZE = CircularDiskQueueAndStack.HEADER_SIZE;
+
+	static final int CAPACITY_OFFSET = 0;
+	static final int TYPE_OFFSET = 8;
+	static final int HEAD_OFFSET = 64;
+	static final int REMOVED_OFFSET = 72;
+	static final int REMOVED_LENGTH_OFFSET = 80;
+	static final int TAIL_OFFSET = 128;
+	static final int ADDED_OFFSET = 136;
+	static final int ADDED_LENGTH_OFFSET = 144;
+	static final int DATA_OFFSET = 192;
+
+	// file locks of a shared one in fileName.lock
+	static final long INIT_LOCK = Integer.MAX_VALUE;
+	static final long CONSUMER_LOCK = INIT_LOCK + 1;
+	static final long ALIVE_AREA = CONSUMER_LOCK + 1;
+	static final long ALIVE_SLOTS = 1 << 20;
+
+	final long capacity;
+	final int type;
+	final boolean shared;
+	final boolean consumer;
+
+	final RandomAccessFile file;
+	final MappedMemory memory;
+	private ProcessLock lock;
+	private LockFile lockFile;
+	private FileLock alive;
+	private FileLock consumerLock;
+
+	// the consumer
+	long head;
+	long published; // head the producers can see
+	long tailCache; // tail is read again only when it looks empty
+
+	/**
+	 * opens it only for this process, call {@link #open()} at the end of the constructor of a subclass.
+	 *
+	 * @param capacity
+	 * @param fileName
+	 * @param type
+	 *            it can not open a file of another type
+	 * @throws IOException
+	 */
+	MappedCircularDiskQueue(long capacity, String fileName, int type) throws IOException {
+		this(capacity, fileName, type, false, true);
+	}
+
+	/**
+	 * @param capacity
+	 * @param fileName
+	 * @param type
+	 *            it can not open a file of another type
+	 * @param shared
+	 *            true if other processes can open it at the same time
+	 * @param consumer
+	 *            true if it removes, only one of them can
+	 * @throws IOException
+	 */
+	MappedCircularDiskQueue(long capacity, String fileName, int type, boolean shared, boolean consumer)
+			throws IOException {
+		if (capacity <= HEADER_SIZE || capacity > Integer.MAX_VALUE - DATA_OFFSET)
+			throw new IllegalArgumentException("wrong capacity " + capacity);
+		this.capacity = capacity;
+		this.type = type;
+		this.shared = shared;
+		this.consumer = consumer;
+
+		if (shared == false) {
+			lock = new ProcessLock(fileName);
+		}
+
+		RandomAccessFile file = null;
+		try {
+			lockFile = LockFile.open(fileName);
+			file = new RandomAccessFile(fileName, "rw");
+			memory = new MappedMemory(file.getChannel(), DATA_OFFSET + capacity);
+			if (shared && memory.isAtomicAcrossProcesses() == false)
+				throw new IOException("it can not be shared without sun.misc.Unsafe, see MappedMemory");
+		} catch (IOException e) {
+			if (file != null)
+				file.close();
+			if (lockFile != null)
+				lockFile.close();
+			if (lock != null)
+				lock.close();
+			throw e;
+		}
+		this.file = file;
+	}
+
+	/**
+	 * checks or initializes the header then recovers frames if nobody else has it open.
+	 *
+	 * @throws IOException
+	 */
+	void open() throws IOException {
+		try {
+			FileChannel channel = lockFile.channel;
+			synchronized (MappedCircularDiskQueue.class) { // a file lock is for a process not for a thread
+				FileLock init = channel.lock(INIT_LOCK, 1, false);
+				try {
+					if (shared == false) {
+						alive = tryLock(channel, ALIVE_AREA, ALIVE_SLOTS);
+						if (alive == null)
+							throw new IOException("exit because shared ones have it open");
+						initHeader(true);
+						return;
+					}
+
+					FileLock owner = tryLock(channel, ProcessLock.POSITION, 1);
+					if (owner == null)
+						throw new IOException("exit because another one has it open only for itself");
+					owner.release();
+
+					if (consumer) {
+						consumerLock = tryLock(channel, CONSUMER_LOCK, 1);
+						if (consumerLock == null)
+							throw new IOException("another consumer has it");
+					}
+
+					FileLock all = tryLock(channel, ALIVE_AREA, ALIVE_SLOTS);
+					if (all != null)
+						all.release();
+					initHeader(all != null);
+					alive = lockAliveSlot(channel);
+				} finally {
+					init.release();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private void initHeader(boolean alone) throws IOException {
+		long oldCapacity = memory.getLongVolatile(CAPACITY_OFFSET);
+		if (oldCapacity == 0) { // new
+			memory.putLongVolatile(TYPE_OFFSET, type);
+			memory.putLongVolatile(CAPACITY_OFFSET, capacity);
+		} else if (oldCapacity != capacity || memory.getLongVolatile(TYPE_OFFSET) != type) {
+			throw new IOException("wrong capacity or type " + capacity + ", " + type + ", the file has "
+					+ oldCapacity + ", " + memory.getLongVolatile(TYPE_OFFSET));
+		}
+
+		head = memory.getLongVolatile(HEAD_OFFSET);
+		published = head;
+		tailCache = memory.getLongVolatile(TAIL_OFFSET);
+		if (alone) { // counts again because it may have died between frames and counts
+			memory.putLongVolatile(ADDED_OFFSET, memory.getLongVolatile(REMOVED_OFFSET));
+			memory.putLongVolatile(ADDED_LENGTH_OFFSET, memory.getLongVolatile(REMOVED_LENGTH_OFFSET));
+			recover(head, tailCache);
+		}
+	}
+
+	/**
+	 * @return the lock or null if another process or this process has it
+	 */
+	private static FileLock tryLock(FileChannel channel, long position, long size) throws IOException {
+		try {
+			return channel.tryLock(position, size, false);
+		} catch (OverlappingFileLockException e) {
+			return null;
+		}
+	}
+
+	private static FileLock lockAliveSlot(FileChannel channel) throws IOException {
+		while (true) {
+			long slot = ThreadLocalRandom.current().nextLong(ALIVE_SLOTS);
+			FileLock result = tryLock(channel, ALIVE_AREA + slot, 1);
+			if (result != null)
+				return result;
+		}
+	}
+
+	/**
+	 * validates the frames between from and to and adds them by {@link #added(long, long)}, called only when nobody
+	 * else has it open.
+	 *
+	 * @param from
+	 * @param to
+	 * @throws IOException
+	 */
+	abstract void recover(long from, long to) throws IOException;
+
+	/**
+	 * @return length of data of the first one after moving head over the ones it should skip, 0 if it has nothing to
+	 *         read now
+	 * @throws IOException
+	 */
+	abstract int firstLength() throws IOException;
+
+	/**
+	 * @param dataLength
+	 * @return space of a frame of the given length
+	 */
+	abstract long frameSpace(int dataLength);
+
+	/**
+	 * @return bytes before the data in a frame
+	 */
+	int getLeadingHeaderSize() {
+		return HEADER_SIZE;
+	}
+
+	/**
+	 * called before the space is published to producers.
+	 *
+	 * @param from
+	 * @param to
+	 */
+	void releasing(long from, long to) {
+	}
+
+	/**
+	 * @return false if it is empty
+	 */
+	boolean refreshTail() {
+		if (consumer == false)
+			throw new IllegalStateException("not a consumer");
+
+		if (head == tailCache)
+			tailCache = memory.getLongVolatile(TAIL_OFFSET);
+		return head != tailCache;
+	}
+
+	/**
+	 * counts frames which are going to be committed, before they are committed so size is never negative.
+	 */
+	void added(long count, long dataLength) {
+		memory.getAndAddLong(ADDED_OFFSET, count);
+		memory.getAndAddLong(ADDED_LENGTH_OFFSET, dataLength);
+	}
+
+	/*
+	 * it read until head, producers can reuse the space from now.
+	 */
+	void release(long count, long dataLength) {
+		memory.putLongOrdered(REMOVED_OFFSET, memory.getLongVolatile(REMOVED_OFFSET) + count);
+		memory.putLongOrdered(REMOVED_LENGTH_OFFSET, memory.getLongVolatile(REMOVED_LENGTH_OFFSET) + dataLength);
+		releasing(published, head);
+		published = head;
+		memory.putLongOrdered(HEAD_OFFSET, head);
+	}
+
+	/*
+	 * firstLength skipped frames but nothing comes after them to publish them with.
+	 */
+	private void releaseSkipped() {
+		if (head != published)
+			release(0, 0);
+	}
+
+	@Override
+	public byte[] removeFirst() throws IOException {
+		int dataLength = firstLength();
+		if (dataLength == 0) {
+			releaseSkipped();
+			throw new NoSuchElementException();
+		}
+
+		byte[] result = new byte[dataLength];
+		read(head + getLeadingHeaderSize(), result, 0, dataLength);
+		head += frameSpace(dataLength);
+		release(1, dataLength);
+		return result;
+	}
+
+	@Override
+	public int removeFirst(ByteBuffer dst) throws IOException {
+		int dataLength = firstLength();
+		if (dataLength == 0) {
+			releaseSkipped();
+			throw new NoSuchElementException();
+		}
+
+		if (dst.remaining() < dataLength)
+			return -dataLength;
+		readInto(head + getLeadingHeaderSize(), dst, dataLength);
+		head += frameSpace(dataLength);
+		release(1, dataLength);
+		return dataLength;
+	}
+
+	@Override
+	public byte[] peekFirst() throws IOException {
+		int dataLength = firstLength();
+		if (dataLength == 0) {
+			releaseSkipped();
+			return null;
+		}
+
+		byte[] result = new byte[dataLength];
+		read(head + getLeadingHeaderSize(), result, 0, dataLength);
+		return result;
+	}
+
+	@Override
+	public int peekFirst(ByteBuffer dst) throws IOException {
+		int dataLength = firstLength();
+		if (dataLength == 0) {
+			releaseSkipped();
+			return 0;
+		}
+
+		if (dst.remaining() < dataLength)
+			return -dataLength;
+		readInto(head + getLeadingHeaderSize(), dst, dataLength);
+		return dataLength;
+	}
+
+	@Override
+	public List<byte[]> drain(int maxElements) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, maxElements, Long.MAX_VALUE);
+		return result;
+	}
+
+	@Override
+	public int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException {
+		return drainTo(c, maxElements, Long.MAX_VALUE);
+	}
+
+	@Override
+	public List<byte[]> drainBytes(long maxBytes) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, Integer.MAX_VALUE, maxBytes);
+		return result;
+	}
+
+	/**
+	 * see {@link CircularDiskQueueAndStack#drainBytes(long)}, it publishes head once at the end.
+	 */
+	private int drainTo(Collection<? super byte[]> c, int maxElements, long maxBytes) throws IOException {
+		long removedLength = 0;
+		int count = 0;
+		try {
+			while (count < maxElements) {
+				int dataLength = firstLength();
+				if (dataLength == 0 || (removedLength + dataLength > maxBytes && count > 0))
+					break;
+
+				byte[] bs = new byte[dataLength];
+				read(head + getLeadingHeaderSize(), bs, 0, dataLength);
+				c.add(bs);
+				head += frameSpace(dataLength);
+				removedLength += dataLength;
+				count++;
+			}
+		} finally {
+			if (head != published)
+				release(count, removedLength);
+		}
+		return count;
+	}
+
+	/**
+	 * copies into the circular data area, it may go over the end.
+	 */
+	void write(long pos, byte[] bs, int off, int len) {
+		long from = pos % capacity;
+		int first = (int) Math.min(len, capacity - from);
+		memory.put(DATA_OFFSET + from, bs, off, first);
+		if (first < len) // two pieces
+			memory.put(DATA_OFFSET, bs, off + first, len - first);
+	}
+
+	void read(long pos, byte[] bs, int off, int len) {
+		long from = pos % capacity;
+		int first = (int) Math.min(len, capacity - from);
+		memory.get(DATA_OFFSET + from, bs, off, first);
+		if (first < len) // two pieces
+			memory.get(DATA_OFFSET, bs, off + first, len - first);
+	}
+
+	void readInto(long pos, ByteBuffer dst, int len) {
+		if (dst.hasArray()) {
+			read(pos, dst.array(), dst.arrayOffset() + dst.position(), len);
+			((Buffer) dst).position(dst.position() + len);
+		} else {
+			byte[] bs = new byte[len]; // needs a copy
+			read(pos, bs, 0, len);
+			dst.put(bs);
+		}
+	}
+
+	/**
+	 * fills the circular data area with 0, it may go over the end.
+	 */
+	void clear(long from, long to) {
+		long pos = from % capacity;
+		long len = to - from;
+		long first = Math.min(len, capacity - pos);
+		memory.clear(DATA_OFFSET + pos, first);
+		if (first < len) // two pieces
+			memory.clear(DATA_OFFSET, len - first);
+	}
+
+	/**
+	 * saves data and header into the disk physically.
+	 */
+	public void sync() {
+		memory.force();
+	}
+
+	/*
+	 * exact only when nobody is adding/removing.
+	 */
+	@Override
+	public long size() {
+		long r = memory.getLongVolatile(REMOVED_OFFSET); // first so it is never smaller than the real one
+		return Math.max(0, memory.getLongVolatile(ADDED_OFFSET) - r);
+	}
+
+	@Override
+	public long length() {
+		long r = memory.getLongVolatile(REMOVED_LENGTH_OFFSET);
+		return Math.max(0, memory.getLongVolatile(ADDED_LENGTH_OFFSET) - r);
+	}
+
+	@Override
+	public long lengthOfStorage() {
+		long h = memory.getLongVolatile(HEAD_OFFSET); // first so it is never negative
+		return memory.getLongVolatile(TAIL_OFFSET) - h;
+	}
+
+	@Override
+	public long getAvailableTotalSpace() {
+		return capacity - lengthOfStorage();
+	}
+
+	@Override
+	public long getAvailableSpace() {
+		return getAvailableTotalSpace() - HEADER_SIZE;
+	}
+
+	/*
+	 * the mapped memory is released by GC.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (alive != null)
+			alive.release();
+		if (consumerLock != null)
+			consumerLock.release();
+		if (lockFile != null)
+			lockFile.close();
+		file.close();
+		if (lock != null)
+			lock.close();
+	}
+}
@@ -0,0 +1,268 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A lock free queue for many producer threads and one consumer thread over a memory mapped file, see
+ * {@link MappedCircularDiskQueue}. Instead of taking a lock a producer reserves space by a compare-and-swap on the tail
+ * so producers copy their data at the same time, then it commits the frame by an ordered write of its header.
+ *
+ * A frame is [header4][position8][data][padding] where the padding makes every frame a multiple of 4 so a header is
+ * never divided at the end of the circle and can be read/written atomically. The position is where the frame starts
+ * since the file was created, head and tail are positions too. The header is
+ * <ul>
+ * <li>0: nothing yet, the consumer zeroes the space it read before publishing head</li>
+ * <li>-length: reserved, the producer is still copying data</li>
+ * <li>length: committed</li>
+ * <li>PADDING | length: skip it, a producer failed or died before it committed</li>
+ * </ul>
+ * Because it is FIFO the consumer does not go over a frame which is not committed yet, it looks empty until the
+ * producer commits it. The consumer publishes the space of PADDING frames it skipped even if nothing comes after them.
+ *
+ * When it is opened again a reserved frame becomes PADDING. A frame which has no header, its producer died before it
+ * wrote even the header, is a gap of unknown length so it looks for the next frame whose position is where it is,
+ * every 4 bytes, makes the gap PADDING and goes on from there. The tail is cut at the gap only if nothing comes after
+ * it. The consumer zeroes the space it read so a stale frame of an old circle does not have the right position.
+ *
+ * It can be shared by processes on the same host, producers in any process and a consumer in one process. Producers
+ * of different processes reserve space by the same compare-and-swap on the mapped tail. A reserved frame of a process
+ * which died becomes PADDING only when the first process opens it again after all of them closed, until then the
+ * consumer waits for it.
+ *
+ * The capacity should be a multiple of 4.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class MpscCircularDiskQueue extends MappedCircularDiskQueue {
+	static final int TYPE = 3;
+	static final int PADDING = 0x40000000;
+	static final int ALIGN = 4;
+	static final int FRAME_HEADER_SIZE = HEADER_SIZE + 8; // header and position
+
+	/**
+	 * only this process can open it.
+	 *
+	 * @param capacity
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public MpscCircularDiskQueue(long capacity, String fileName) throws IOException {
+		this(capacity, fileName, false, true);
+	}
+
+	/**
+	 * @param capacity
+	 *            the same for all the processes
+	 * @param fileName
+	 * @param shared
+	 *            true if other processes can open it at the same time, see {@link MappedCircularDiskQueue}
+	 * @param consumer
+	 *            true if it removes, only one process can be the consumer
+	 * @throws IOException
+	 *             if another process is the consumer already or the file has another capacity
+	 */
+	public MpscCircularDiskQueue(long capacity, String fileName, boolean shared, boolean consumer)
+			throws IOException {
+		super(checkCapacity(capacity), fileName, TYPE, shared, consumer);
+		open();
+	}
+
+	private static long checkCapacity(long capacity) {
+		if (capacity % ALIGN != 0)
+			throw new IllegalArgumentException("capacity should be a multiple of " + ALIGN + ", " + capacity);
+		return capacity;
+	}
+
+	/*
+	 * counts committed frames, makes reserved frames and gaps padding and cuts the tail at a gap with nothing after it.
+	 */
+	@Override
+	void recover(long from, long to) throws IOException {
+		while (from < to) {
+			int header = memory.getIntVolatile(headerOffset(from));
+			if (header == 0) { // died before it wrote even the header
+				long next = nextFrame(from, to);
+				if (next < 0) {
+					clear(from, to);
+					memory.putLongVolatile(TAIL_OFFSET, from);
+					tailCache = from;
+					return;
+				}
+				memory.putIntOrdered(headerOffset(from), PADDING | (int) (next - from - FRAME_HEADER_SIZE));
+				from = next;
+				continue;
+			}
+
+			int dataLength = header > 0 ? header & ~PADDING : -header;
+			if (dataLength <= 0 || from + frameSpace(dataLength) > to)
+				throw new IOException("wrong header " + header + " at " + from);
+
+			if (header < 0) {
+				memory.putIntOrdered(headerOffset(from), PADDING | dataLength);
+			} else if ((header & PADDING) == 0) {
+				added(1, dataLength);
+			}
+			from += frameSpace(dataLength);
+		}
+	}
+
+	/**
+	 * @param gap
+	 *            position of a frame which has no header
+	 * @param to
+	 * @return position of the first frame after the gap which has a header and its own position, -1 if none
+	 */
+	private long nextFrame(long gap, long to) {
+		long minSpace = frameSpace(1);
+		for (long pos = gap + minSpace; pos + minSpace <= to; pos += ALIGN) {
+			int header = memory.getIntVolatile(headerOffset(pos));
+			int dataLength = header > 0 ? header & ~PADDING : -header;
+			if (dataLength > 0 && pos + frameSpace(dataLength) <= to && positionOf(pos) == pos)
+				return pos;
+		}
+		return -1;
+	}
+
+	/**
+	 * writes the position of the frame after its header, two ints which are never divided at the end of the circle.
+	 */
+	private void putPosition(long pos) {
+		memory.putIntOrdered(headerOffset(pos + HEADER_SIZE), (int) (pos >>> 32));
+		memory.putIntOrdered(headerOffset(pos + HEADER_SIZE + 4), (int) pos);
+	}
+
+	private long positionOf(long pos) {
+		long high = memory.getIntVolatile(headerOffset(pos + HEADER_SIZE));
+		long low = memory.getIntVolatile(headerOffset(pos + HEADER_SIZE + 4));
+		return high << 32 | low & 0xffffffffL;
+	}
+
+	@Override
+	public void addLast(byte[] bs) throws IOException {
+		checkData(bs);
+
+		long pos = reserve(frameSpace(bs.length));
+		memory.putIntOrdered(headerOffset(pos), -bs.length);
+		boolean committed = false;
+		try {
+			putPosition(pos);
+			write(pos + FRAME_HEADER_SIZE, bs, 0, bs.length);
+			added(1, bs.length);
+			memory.putIntOrdered(headerOffset(pos), bs.length);
+			committed = true;
+		} finally {
+			if (committed == false)
+				memory.putIntOrdered(headerOffset(pos), PADDING | bs.length);
+		}
+	}
+
+	/*
+	 * reserves all of them at once so they are next to each other.
+	 */
+	@Override
+	public void addLastBatch(List<byte[]> list) throws IOException {
+		long space = 0;
+		for (byte[] bs : list) {
+			checkData(bs);
+			space += frameSpace(bs.length);
+		}
+		if (space == 0)
+			return;
+
+		final long from = reserve(space);
+		long pos = from;
+		for (byte[] bs : list) {
+			memory.putIntOrdered(headerOffset(pos), -bs.length);
+			putPosition(pos);
+			pos += frameSpace(bs.length);
+		}
+
+		pos = from;
+		int committed = 0;
+		try {
+			for (byte[] bs : list) {
+				write(pos + FRAME_HEADER_SIZE, bs, 0, bs.length);
+				added(1, bs.length);
+				memory.putIntOrdered(headerOffset(pos), bs.length);
+				committed++;
+				pos += frameSpace(bs.length);
+			}
+		} finally {
+			for (int i = committed; i < list.size(); i++) {
+				int dataLength = list.get(i).length;
+				memory.putIntOrdered(headerOffset(pos), PADDING | dataLength);
+				pos += frameSpace(dataLength);
+			}
+		}
+	}
+
+	private static void checkData(byte[] bs) {
+		if (bs == null || bs.length == 0)
+			throw new RuntimeException("empty input data");
+		if (bs.length >= PADDING)
+			throw new RuntimeException("too big data " + bs.length);
+	}
+
+	/**
+	 * @param space
+	 * @return position of the reserved space
+	 * @throws IOException
+	 *             if it has not enough space
+	 */
+	private long reserve(long space) throws IOException {
+		while (true) {
+			long tail = memory.getLongVolatile(TAIL_OFFSET);
+			long head = memory.getLongVolatile(HEAD_OFFSET);
+			if (capacity - (tail - head) < space)
+				throw new IOException("no more sapce");
+			if (memory.compareAndSwapLong(TAIL_OFFSET, tail, tail + space))
+				return tail;
+		}
+	}
+
+	private long headerOffset(long pos) {
+		return DATA_OFFSET + pos % capacity;
+	}
+
+	@Override
+	int firstLength() throws IOException {
+		while (refreshTail()) {
+			int header = memory.getIntVolatile(headerOffset(head));
+			if (header <= 0)
+				return 0; // not committed yet
+
+			int dataLength = header & ~PADDING;
+			if (head + frameSpace(dataLength) > tailCache)
+				throw new IOException("wrong header " + header + " at " + head);
+			if ((header & PADDING) == 0)
+				return dataLength;
+
+			head += frameSpace(dataLength); // skip, published with the next one or when nothing comes after it
+		}
+		return 0;
+	}
+
+	/*
+	 * so a header in the space is 0 until a producer writes it.
+	 */
+	@Override
+	void releasing(long from, long to) {
+		clear(from, to);
+	}
+
+	@Override
+	long frameSpace(int dataLength) {
+		return (FRAME_HEADER_SIZE + dataLength + ALIGN - 1) & -ALIGN;
+	}
+
+	@Override
+	int getLeadingHeaderSize() {
+		return FRAME_HEADER_SIZE;
+	}
+
+	@Override
+	public long getAvailableSpace() {
+		return (getAvailableTotalSpace() & -ALIGN) - FRAME_HEADER_SIZE;
+	}
+}
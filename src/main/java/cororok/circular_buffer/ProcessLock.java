@@ -0,0 +1,95 @@
+package cororok.circular_buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Makes sure only one process(and only one instance in a process) opens the data file. It is an OS file lock of a
+ * single byte at {@link #POSITION} of fileName.lock so OS releases it when the process dies and it does not need to
+ * delete anything before starting again. The lock is on the channel of {@link LockFile} which is kept open until the
+ * last one of this process closes it, the data file is opened and closed freely(iterators, mirrors, a failed open)
+ * without releasing it.
+ *
+ * For diagnostics it also writes the process id into fileName.lock while it has the lock. The marker never blocks
+ * opening, a marker left by a dead process is just overwritten. The file is emptied, not deleted, when it is closed so
+ * every process locks the same file.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+class ProcessLock implements AutoCloseable {
+	static final long POSITION = Long.MAX_VALUE - 1;
+
+	private final LockFile lockFile;
+	private final FileLock lock;
+
+	/**
+	 * @param fileName
+	 *            data file
+	 * @throws IOException
+	 *             if another one has the lock
+	 */
+	ProcessLock(String fileName) throws IOException {
+		lockFile = LockFile.open(fileName);
+		FileLock lock = null;
+		try {
+			lock = lockFile.channel.tryLock(POSITION, 1, false);
+		} catch (OverlappingFileLockException e) {
+			// this process has it
+		} catch (IOException e) {
+			lockFile.close();
+			throw e;
+		}
+		if (lock == null) {
+			String marker = readMarker();
+			lockFile.close();
+			throw new IOException("exit because another one has the lock of " + new File(fileName).getAbsolutePath()
+					+ ", " + marker);
+		}
+		this.lock = lock;
+		writeMarker();
+	}
+
+	private void writeMarker() {
+		try {
+			byte[] bs = ManagementFactory.getRuntimeMXBean().getName().getBytes(); // pid@host
+			lockFile.channel.truncate(0);
+			lockFile.channel.write(ByteBuffer.wrap(bs), 0);
+		} catch (IOException e) {
+			// it is only for diagnostics
+		}
+	}
+
+	private String readMarker() {
+		try {
+			ByteBuffer bs = ByteBuffer.allocate((int) Math.min(lockFile.channel.size(), 256));
+			if (bs.capacity() == 0)
+				return "no marker";
+
+			lockFile.channel.read(bs, 0);
+			return "marker " + new String(bs.array(), 0, bs.position());
+		} catch (IOException e) {
+			return "wrong marker " + e;
+		}
+	}
+
+	/*
+	 * empties the marker before releasing the lock so it does not empty the marker of the next one.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			lockFile.channel.truncate(0);
+		} catch (IOException e) {
+			// it is only for diagnostics
+		}
+		try {
+			lock.release();
+		} finally {
+			lockFile.close();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package cororok.circular_buffer;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author songduk.park cororok@gmail.com
@@ -14,4 +15,13 @@ public interface Queue extends AbstractQueueAndStack {
 	 */
 	void addLast(byte[] bs) throws IOException;
 
+	/**
+	 * adds all of them at the last in the given order. It saves all of them or nothing.
+	 * 
+	 * @param list
+	 * @throws IOException
+	 *             if it has not enough space for all of them it returns IOException
+	 */
+	void addLastBatch(List<byte[]> list) throws IOException;
+
 }
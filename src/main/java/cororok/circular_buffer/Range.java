@@ -0,0 +1,28 @@
+package cororok.circular_buffer;
+
+/**
+ * A reusable holder of a range which {@link CircularBufferInfo} returns. Instead of creating a new array every time it
+ * fills one of its own arrays, {from, to} or {from1, to1, from2, to2}, and returns it so the returned array is valid
+ * only until the next call with the same instance.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class Range {
+
+	private final long[] two = new long[2];
+	private final long[] four = new long[4];
+
+	long[] of(long from, long to) {
+		two[0] = from;
+		two[1] = to;
+		return two;
+	}
+
+	long[] of(long from1, long to1, long from2, long to2) {
+		four[0] = from1;
+		four[1] = to1;
+		four[2] = from2;
+		four[3] = to2;
+		return four;
+	}
+}
@@ -0,0 +1,327 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cororok.circular_buffer.storage.DefaultDiskWriterFactory;
+import cororok.circular_buffer.storage.DiskWriterFactory;
+
+/**
+ * It has N {@link ConcurrentCircularDiskQueue}s(shards), each of them has its own data, index and lock file(fileName.0,
+ * fileName.1, ...) so N threads can read/write N files at the same time. {@link #addLast(byte[])} chooses a shard round
+ * robin while {@link #addLast(Object, byte[])} chooses it by the hash of the key so the same key always goes to the
+ * same shard and keeps its order.
+ *
+ * The order is kept only in a shard. To have no contention each consumer can take its own shard by
+ * {@link #getShard(int)}, otherwise removeFirst looks for a non empty shard round robin. size and length are the sum
+ * of all the shards.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class ShardedCircularDiskQueue implements Queue {
+
+	final ConcurrentCircularDiskQueue[] shards;
+
+	private final AtomicInteger nextPut = new AtomicInteger();
+	private final AtomicInteger nextTake = new AtomicInteger();
+
+	/**
+	 * @param shards
+	 *            # of shards
+	 * @param capacity
+	 *            capacity of each shard
+	 * @param fileName
+	 *            each shard uses fileName.#
+	 * @throws IOException
+	 */
+	public ShardedCircularDiskQueue(int shards, long capacity, String fileName) throws IOException {
+		this(shards, capacity, fileName, new DefaultDiskWriterFactory());
+	}
+
+	public ShardedCircularDiskQueue(int shards, long capacity, String fileName, DiskWriterFactory facotry)
+			throws IOException {
+		if (shards <= 0)
+			throw new IllegalArgumentException("wrong shards " + shards);
+
+		this.shards = new ConcurrentCircularDiskQueue[shards];
+		try {
+			for (int i = 0; i < shards; i++)
+				this.shards[i] = new ConcurrentCircularDiskQueue(capacity, fileName + "." + i, facotry);
+		} catch (IOException e) {
+			closeQuietly();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return # of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @param index
+	 *            0 ~ shard count - 1
+	 * @return the shard, it is thread safe
+	 */
+	public Queue getShard(int index) {
+		return shards[index];
+	}
+
+	/**
+	 * @param key
+	 * @return index of the shard of the given key
+	 */
+	public int shardOf(Object key) {
+		return (key.hashCode() & Integer.MAX_VALUE) % shards.length;
+	}
+
+	/**
+	 * adds it into the shard of the given key so data of the same key keep their order.
+	 *
+	 * @param key
+	 * @param bs
+	 * @throws IOException
+	 *             if the shard has not enough space
+	 */
+	public void addLast(Object key, byte[] bs) throws IOException {
+		shards[shardOf(key)].addLast(bs);
+	}
+
+	/*
+	 * round robin, skips shards which do not have enough space.
+	 */
+	@Override
+	public void addLast(byte[] bs) throws IOException {
+		if (bs == null || bs.length == 0)
+			throw new RuntimeException("empty input data");
+
+		int from = next(nextPut);
+		for (int i = 0; i < shards.length; i++) {
+			ConcurrentCircularDiskQueue shard = shards[(from + i) % shards.length];
+			if (shard.getAvailableSpace() < bs.length)
+				continue;
+			try {
+				shard.addLast(bs);
+				return;
+			} catch (IOException e) {
+				if (shard.getAvailableSpace() >= bs.length)
+					throw e; // not because of space
+			}
+		}
+		throw new IOException("no more sapce");
+	}
+
+	/*
+	 * all of them go into a single shard to keep their order and all or nothing, it skips shards which do not have
+	 * enough space like addLast.
+	 */
+	@Override
+	public void addLastBatch(List<byte[]> list) throws IOException {
+		if (list.isEmpty())
+			return;
+
+		long total = 0;
+		for (byte[] bs : list) {
+			if (bs == null || bs.length == 0)
+				throw new RuntimeException("empty input data");
+			total += ConcurrentCircularDiskQueue.HEADER_SIZE + bs.length;
+		}
+
+		int from = next(nextPut);
+		for (int i = 0; i < shards.length; i++) {
+			ConcurrentCircularDiskQueue shard = shards[(from + i) % shards.length];
+			if (shard.getAvailableTotalSpace() < total)
+				continue;
+			try {
+				shard.addLastBatch(list);
+				return;
+			} catch (IOException e) {
+				if (shard.getAvailableTotalSpace() >= total)
+					throw e; // not because of space
+			}
+		}
+		throw new IOException("no more sapce");
+	}
+
+	@Override
+	public byte[] removeFirst() throws IOException {
+		int from = next(nextTake);
+		for (int i = 0; i < shards.length; i++) {
+			ConcurrentCircularDiskQueue shard = shards[(from + i) % shards.length];
+			if (shard.size() == 0)
+				continue;
+			try {
+				return shard.removeFirst();
+			} catch (NoSuchElementException e) {
+				// another consumer took it
+			}
+		}
+		throw new NoSuchElementException();
+	}
+
+	@Override
+	public int removeFirst(ByteBuffer dst) throws IOException {
+		int from = next(nextTake);
+		for (int i = 0; i < shards.length; i++) {
+			ConcurrentCircularDiskQueue shard = shards[(from + i) % shards.length];
+			if (shard.size() == 0)
+				continue;
+			try {
+				return shard.removeFirst(dst);
+			} catch (NoSuchElementException e) {
+				// another consumer took it
+			}
+		}
+		throw new NoSuchElementException();
+	}
+
+	@Override
+	public byte[] peekFirst() throws IOException {
+		int from = nextTake.get();
+		for (int i = 0; i < shards.length; i++) {
+			byte[] result = shards[index(from + i)].peekFirst();
+			if (result != null)
+				return result;
+		}
+		return null;
+	}
+
+	@Override
+	public int peekFirst(ByteBuffer dst) throws IOException {
+		int from = nextTake.get();
+		for (int i = 0; i < shards.length; i++) {
+			int result = shards[index(from + i)].peekFirst(dst);
+			if (result != 0)
+				return result;
+		}
+		return 0;
+	}
+
+	@Override
+	public List<byte[]> drain(int maxElements) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		drainTo(result, maxElements);
+		return result;
+	}
+
+	@Override
+	public int drainTo(Collection<? super byte[]> c, int maxElements) throws IOException {
+		int from = next(nextTake);
+		int count = 0;
+		for (int i = 0; i < shards.length && count < maxElements; i++)
+			count += shards[(from + i) % shards.length].drainTo(c, maxElements - count);
+		return count;
+	}
+
+	/*
+	 * it removes at least one like the others, then it does not go over the given max.
+	 */
+	@Override
+	public List<byte[]> drainBytes(long maxBytes) throws IOException {
+		List<byte[]> result = new ArrayList<>();
+		int from = next(nextTake);
+		long removedLength = 0;
+		for (int i = 0; i < shards.length && removedLength < maxBytes; i++) {
+			ConcurrentCircularDiskQueue shard = shards[(from + i) % shards.length];
+			List<byte[]> list = result.isEmpty() ? shard.drainBytes(maxBytes)
+					: drainUpTo(shard, maxBytes - removedLength);
+			for (byte[] bs : list)
+				removedLength += bs.length;
+			result.addAll(list);
+		}
+		return result;
+	}
+
+	/*
+	 * drainBytes of a shard removes one even if it is bigger than the given max so check it first.
+	 */
+	private List<byte[]> drainUpTo(ConcurrentCircularDiskQueue shard, long maxBytes) throws IOException {
+		ByteBuffer probe = ByteBuffer.allocate(0);
+		int first = shard.peekFirst(probe); // negative length
+		if (first == 0 || -first > maxBytes)
+			return new ArrayList<>();
+		return shard.drainBytes(maxBytes);
+	}
+
+	private int next(AtomicInteger counter) {
+		return index(counter.getAndIncrement());
+	}
+
+	private int index(int i) {
+		return (i & Integer.MAX_VALUE) % shards.length;
+	}
+
+	@Override
+	public long size() {
+		long result = 0;
+		for (ConcurrentCircularDiskQueue shard : shards)
+			result += shard.size();
+		return result;
+	}
+
+	@Override
+	public long length() {
+		long result = 0;
+		for (ConcurrentCircularDiskQueue shard : shards)
+			result += shard.length();
+		return result;
+	}
+
+	@Override
+	public long lengthOfStorage() {
+		long result = 0;
+		for (ConcurrentCircularDiskQueue shard : shards)
+			result += shard.lengthOfStorage();
+		return result;
+	}
+
+	@Override
+	public long getAvailableTotalSpace() {
+		long result = 0;
+		for (ConcurrentCircularDiskQueue shard : shards)
+			result += shard.getAvailableTotalSpace();
+		return result;
+	}
+
+	/*
+	 * the biggest one it can add now because a single data can not be divided into shards.
+	 */
+	@Override
+	public long getAvailableSpace() {
+		long result = 0;
+		for (ConcurrentCircularDiskQueue shard : shards)
+			result = Math.max(result, shard.getAvailableSpace());
+		return result;
+	}
+
+	@Override
+	public void close() throws Exception {
+		Exception first = null;
+		for (ConcurrentCircularDiskQueue shard : shards) {
+			try {
+				if (shard != null)
+					shard.close();
+			} catch (Exception e) {
+				if (first == null)
+					first = e;
+			}
+		}
+		if (first != null)
+			throw first;
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (Exception e) {
+			// ignore, it is failing already
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package cororok.circular_buffer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A lock free queue for exactly one producer thread and one consumer thread over a memory mapped file, see
+ * {@link MappedCircularDiskQueue}. Frames are [length4][data] like CircularDiskQueueAndStack. The producer writes
+ * frames then publishes the new tail, the consumer reads tail before the frames so it never reads a half written
+ * frame, the same with head the other way around.
+ *
+ * Only one thread may add and only one thread may remove at a time, it does not check it.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class SpscCircularDiskQueue extends MappedCircularDiskQueue {
+	static final int TYPE = 1;
+
+	// the producer
+	private long tail;
+	private long headCache; // head is read again only when it looks full
+	private final byte[] putHeader = new byte[HEADER_SIZE];
+
+	// the consumer
+	private final byte[] takeHeader = new byte[HEADER_SIZE];
+
+	public SpscCircularDiskQueue(long capacity, String fileName) throws IOException {
+		super(capacity, fileName, TYPE);
+		open();
+
+		tail = tailCache;
+		headCache = head;
+	}
+
+	@Override
+	void recover(long from, long to) throws IOException {
+		byte[] header = new byte[HEADER_SIZE]; // fields are not ready yet
+		while (from < to) {
+			read(from, header, 0, HEADER_SIZE);
+			int dataLength = ByteUtil.byteToNum(header, 0);
+			if (dataLength <= 0 || from + HEADER_SIZE + dataLength > to)
+				throw new IOException("wrong header " + dataLength + " at " + from);
+			from += HEADER_SIZE + dataLength;
+			added(1, dataLength);
+		}
+	}
+
+	@Override
+	public void addLast(byte[] bs) throws IOException {
+		if (bs == null || bs.length == 0)
+			throw new RuntimeException("empty input data");
+
+		long space = HEADER_SIZE + bs.length;
+		checkSpace(space);
+
+		ByteUtil.numToByte(bs.length, putHeader, 0);
+		write(tail, putHeader, 0, HEADER_SIZE);
+		write(tail + HEADER_SIZE, bs, 0, bs.length);
+		publish(space, 1, bs.length);
+	}
+
+	@Override
+	public void addLastBatch(List<byte[]> list) throws IOException {
+		long space = 0;
+		for (byte[] bs : list) {
+			if (bs == null || bs.length == 0)
+				throw new RuntimeException("empty input data");
+			space += HEADER_SIZE + bs.length;
+		}
+		if (space == 0)
+			return;
+		checkSpace(space);
+
+		long pos = tail;
+		for (byte[] bs : list) {
+			ByteUtil.numToByte(bs.length, putHeader, 0);
+			write(pos, putHeader, 0, HEADER_SIZE);
+			write(pos + HEADER_SIZE, bs, 0, bs.length);
+			pos += HEADER_SIZE + bs.length;
+		}
+		publish(space, list.size(), space - (long) list.size() * HEADER_SIZE);
+	}
+
+	private void checkSpace(long space) throws IOException {
+		if (capacity - (tail - headCache) >= space)
+			return;
+
+		headCache = memory.getLongVolatile(HEAD_OFFSET);
+		if (capacity - (tail - headCache) < space)
+			throw new IOException("no more sapce");
+	}
+
+	/*
+	 * the frames are written already, the consumer can see them from now.
+	 */
+	private void publish(long space, long count, long dataLength) {
+		added(count, dataLength);
+		tail += space;
+		memory.putLongOrdered(TAIL_OFFSET, tail);
+	}
+
+	@Override
+	int firstLength() throws IOException {
+		if (refreshTail() == false)
+			return 0;
+
+		read(head, takeHeader, 0, HEADER_SIZE);
+		int dataLength = ByteUtil.byteToNum(takeHeader, 0);
+		if (dataLength <= 0 || head + HEADER_SIZE + dataLength > tailCache)
+			throw new IOException("wrong header " + dataLength + " at " + head);
+		return dataLength;
+	}
+
+	@Override
+	long frameSpace(int dataLength) {
+		return HEADER_SIZE + dataLength;
+	}
+}
@@ -1,6 +1,7 @@
 package cororok.circular_buffer;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author songduk.park cororok@gmail.com
@@ -14,4 +15,14 @@ public interface Stack extends AbstractQueueAndStack {
 	 */
 	void addFirst(byte[] bs) throws IOException;
 
+	/**
+	 * adds all of them at the first in the given order so the last one of the list becomes the first. It saves all of
+	 * them or nothing.
+	 * 
+	 * @param list
+	 * @throws IOException
+	 *             if it has not enough space for all of them it returns IOException
+	 */
+	void addFirstBatch(List<byte[]> list) throws IOException;
+
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+package cororok.circular_buffer.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * It uses positional read/write of FileChannel so it does not need a seek before read/write and a wrapped range costs
+ * two read/write without any seek. When two ranges are contiguous like [header][data] it writes them together as a
+ * single gathering write.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class ChannelDiskWriter extends DiskWriter {
+
+	RandomAccessFile file;
+	FileChannel channel;
+	File dataFile;
+
+	/**
+	 * current position like RandomAccessFile, only used by seek/read/write
+	 */
+	long position;
+
+	private final ByteBuffer[] pair = new ByteBuffer[2];
+
+	public ChannelDiskWriter(File dataFile) throws IOException {
+		this.dataFile = dataFile;
+		this.file = new RandomAccessFile(dataFile, "rw");
+		this.channel = file.getChannel();
+	}
+
+	@Override
+	public void seek(long pos) throws IOException {
+		position = pos;
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		writeAt(position, ByteBuffer.wrap(b, off, len));
+		position += len;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = readAt(position, ByteBuffer.wrap(b, off, len));
+		if (read > 0)
+			position += read;
+		return read;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public byte[] readStorage(long[] range) throws IOException {
+		int size1 = (int) (range[1] - range[0]);
+		if (range.length == 2) {
+			byte[] result = new byte[size1];
+			readAt(range[0], ByteBuffer.wrap(result));
+			return result;
+		}
+
+		int size2 = (int) (range[3] - range[2]);
+		byte[] result = new byte[size1 + size2];
+		readAt(range[0], ByteBuffer.wrap(result, 0, size1)); // part 1
+		readAt(range[2], ByteBuffer.wrap(result, size1, size2)); // part 2
+		return result;
+	}
+
+	@Override
+	public void readStorage(long[] range, byte[] dst) throws IOException {
+		int size1 = (int) (range[1] - range[0]);
+		readAt(range[0], ByteBuffer.wrap(dst, 0, size1));
+		if (range.length == 4) // two pieces
+			readAt(range[2], ByteBuffer.wrap(dst, size1, (int) (range[3] - range[2])));
+	}
+
+	/*
+	 * reads directly into the buffer, no copy if it is a direct buffer.
+	 */
+	@Override
+	public void readStorage(long[] range, ByteBuffer dst) throws IOException {
+		readAt(range[0], dst, (int) (range[1] - range[0]));
+		if (range.length == 4) // two pieces
+			readAt(range[2], dst, (int) (range[3] - range[2]));
+	}
+
+	@Override
+	public void writeStorage(long[] range, byte[] bs) throws IOException {
+		if (range.length == 2) {
+			writeAt(range[0], ByteBuffer.wrap(bs));
+		} else { // two pieces
+			int size1 = (int) (range[1] - range[0]);
+			writeAt(range[0], ByteBuffer.wrap(bs, 0, size1)); // part 1
+			writeAt(range[2], ByteBuffer.wrap(bs, size1, bs.length - size1)); // part 2
+		}
+	}
+
+	/*
+	 * a single gathering write if range2 follows range1 right after.
+	 */
+	@Override
+	public void writeStorage(long[] range1, byte[] bs1, long[] range2, byte[] bs2) throws IOException {
+		if (range1.length != 2 || range2.length != 2 || range1[1] != range2[0]) {
+			super.writeStorage(range1, bs1, range2, bs2);
+			return;
+		}
+
+		pair[0] = ByteBuffer.wrap(bs1);
+		pair[1] = ByteBuffer.wrap(bs2);
+		try {
+			channel.position(range1[0]);
+			while (pair[0].hasRemaining() || pair[1].hasRemaining())
+				channel.write(pair);
+		} finally {
+			pair[0] = null;
+			pair[1] = null;
+		}
+	}
+
+	void writeAt(long pos, ByteBuffer bb) throws IOException {
+		while (bb.hasRemaining())
+			pos += channel.write(bb, pos);
+	}
+
+	/**
+	 * @return # of bytes it read or -1 if it reached the end of file without reading any byte
+	 */
+	int readAt(long pos, ByteBuffer bb) throws IOException {
+		int total = 0;
+		while (bb.hasRemaining()) {
+			int read = channel.read(bb, pos + total);
+			if (read < 0)
+				return total == 0 ? -1 : total;
+			total += read;
+		}
+		return total;
+	}
+
+	private void readAt(long pos, ByteBuffer dst, int len) throws IOException {
+		int limit = dst.limit();
+		((Buffer) dst).limit(dst.position() + len);
+		try {
+			if (readAt(pos, dst) < len)
+				throw new EOFException("can not read " + len + " bytes at " + pos);
+		} finally {
+			((Buffer) dst).limit(limit);
+		}
+	}
+
+	@Override
+	public void transferTo(long[] range, WritableByteChannel target) throws IOException {
+		transferTo(channel, range, target);
+	}
+
+	@Override
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	@Override
+	public File geteFile() {
+		return dataFile;
+	}
+}
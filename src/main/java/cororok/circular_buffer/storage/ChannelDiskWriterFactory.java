@@ -0,0 +1,16 @@
+package cororok.circular_buffer.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author songduk.park cororok@gmail.com
+ */
+public class ChannelDiskWriterFactory implements DiskWriterFactory {
+
+	@Override
+	public DiskWriter createStorageWriter(File dataFile) throws IOException {
+		return new ChannelDiskWriter(dataFile);
+	}
+
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * It is a wrapper of RandomAccessFile.
@@ -45,6 +46,16 @@ public class DefaultDiskWriter extends DiskWriter {
 		return file.read(b);
 	}
 
+	@Override
+	public void transferTo(long[] range, WritableByteChannel target) throws IOException {
+		transferTo(file.getChannel(), range, target);
+	}
+
+	@Override
+	public void force() throws IOException {
+		file.getChannel().force(false);
+	}
+
 	@Override
 	public void close() throws IOException {
 		file.close();
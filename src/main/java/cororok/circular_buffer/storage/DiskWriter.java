@@ -1,7 +1,12 @@
 package cororok.circular_buffer.storage;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * It is used to read/write data in the persistent storage.
@@ -20,6 +25,13 @@ public abstract class DiskWriter implements AutoCloseable {
 
 	abstract public int read(byte[] b) throws IOException;
 
+	/**
+	 * saves all written data into the storage physically like fsync.
+	 * 
+	 * @throws IOException
+	 */
+	abstract public void force() throws IOException;
+
 	/**
 	 * @return current File
 	 */
@@ -50,6 +62,108 @@ public abstract class DiskWriter implements AutoCloseable {
 		return result;
 	}
 
+	/**
+	 * the same as {@link #readStorage(long[])} but reads into the given array from 0 instead of creating a new one.
+	 * 
+	 * @param range
+	 *            {from, to} or {from1, to1, from2, to2}
+	 * @param dst
+	 *            should be big enough to hold the range
+	 * @throws IOException
+	 */
+	public void readStorage(long[] range, byte[] dst) throws IOException {
+		seek(range[0]);
+
+		int size1 = (int) (range[1] - range[0]);
+		read(dst, 0, size1);
+		if (range.length == 4) { // two pieces
+			int size2 = (int) (range[3] - range[2]);
+			seek(range[2]);
+			read(dst, size1, size2);
+		}
+	}
+
+	/**
+	 * the same as {@link #readStorage(long[])} but reads into the given buffer from its position and moves the position
+	 * as much as it reads.
+	 * 
+	 * @param range
+	 *            {from, to} or {from1, to1, from2, to2}
+	 * @param dst
+	 *            should have enough remaining to hold the range
+	 * @throws IOException
+	 */
+	public void readStorage(long[] range, ByteBuffer dst) throws IOException {
+		if (dst.hasArray() == false) {
+			dst.put(readStorage(range)); // needs a copy
+			return;
+		}
+
+		int offset = dst.arrayOffset() + dst.position();
+		int size1 = (int) (range[1] - range[0]);
+		int total = size1;
+		seek(range[0]);
+		read(dst.array(), offset, size1);
+		if (range.length == 4) { // two pieces
+			int size2 = (int) (range[3] - range[2]);
+			seek(range[2]);
+			read(dst.array(), offset + size1, size2);
+			total += size2;
+		}
+		((Buffer) dst).position(dst.position() + total);
+	}
+
+	/**
+	 * sends data in the range to the given channel. By default it reads data into memory first but a subclass which has
+	 * a FileChannel can send it without copy, see {@link #transferTo(FileChannel, long[], WritableByteChannel)}.
+	 * 
+	 * @param range
+	 *            {from, to} or {from1, to1, from2, to2}
+	 * @param target
+	 *            a blocking channel
+	 * @throws IOException
+	 */
+	public void transferTo(long[] range, WritableByteChannel target) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(readStorage(range));
+		while (bb.hasRemaining())
+			target.write(bb);
+	}
+
+	/**
+	 * sends data in the range from the given file to the target by {@link FileChannel#transferTo(long, long,
+	 * WritableByteChannel)} so the data does not need to come into java heap.
+	 * 
+	 * @param channel
+	 *            of the data file
+	 * @param range
+	 *            {from, to} or {from1, to1, from2, to2}
+	 * @param target
+	 * @throws IOException
+	 */
+	protected static void transferTo(FileChannel channel, long[] range, WritableByteChannel target)
+			throws IOException {
+		for (int i = 0; i < range.length; i += 2) {
+			long pos = range[i];
+			while (pos < range[i + 1]) {
+				long sent = channel.transferTo(pos, range[i + 1] - pos, target);
+				if (sent == 0 && pos >= channel.size())
+					throw new EOFException("can not read at " + pos);
+				pos += sent;
+			}
+		}
+	}
+
+	/**
+	 * @param range
+	 *            {from, to} or {from1, to1, from2, to2}
+	 * @return a read only buffer which shares the storage without copy or null if it does not support it or the range
+	 *         can not be a single buffer. It is valid until the range is overwritten.
+	 * @throws IOException
+	 */
+	public ByteBuffer view(long[] range) throws IOException {
+		return null;
+	}
+
 	/**
 	 * @param range
 	 *            {from, to} or {from1, to1, from2, to2}
@@ -69,4 +183,21 @@ public abstract class DiskWriter implements AutoCloseable {
 			write(bs, size1, size2);
 		}
 	}
+
+	/**
+	 * writes two data at once like [header][data]. By default it is the same as calling
+	 * {@link #writeStorage(long[], byte[])} twice but a subclass can write them together if they are contiguous.
+	 * 
+	 * @param range1
+	 *            {from, to} or {from1, to1, from2, to2} of bs1
+	 * @param bs1
+	 * @param range2
+	 *            {from, to} or {from1, to1, from2, to2} of bs2
+	 * @param bs2
+	 * @throws IOException
+	 */
+	public void writeStorage(final long[] range1, byte[] bs1, final long[] range2, byte[] bs2) throws IOException {
+		writeStorage(range1, bs1);
+		writeStorage(range2, bs2);
+	}
 }
\ No newline at end of file
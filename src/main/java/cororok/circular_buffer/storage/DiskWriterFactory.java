@@ -9,4 +9,24 @@ import java.io.IOException;
 public interface DiskWriterFactory {
 
 	DiskWriter createStorageWriter(File dataFile) throws IOException;
+
+	/**
+	 * @param dataFile
+	 * @param capacity
+	 *            the file does not have to be bigger than this
+	 * @return by default {@link #createStorageWriter(File)}
+	 * @throws IOException
+	 */
+	default DiskWriter createStorageWriter(File dataFile, long capacity) throws IOException {
+		return createStorageWriter(dataFile);
+	}
+
+	/**
+	 * @param indexFile
+	 * @return by default an IndexWriter over {@link #createStorageWriter(File)}
+	 * @throws IOException
+	 */
+	default IndexWriter createIndexWriter(File indexFile) throws IOException {
+		return new IndexWriter(createStorageWriter(indexFile));
+	}
 }
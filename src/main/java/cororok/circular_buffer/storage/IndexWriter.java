@@ -3,6 +3,7 @@ package cororok.circular_buffer.storage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import cororok.circular_buffer.CircularBufferInfo;
 
@@ -15,24 +16,42 @@ public class IndexWriter implements AutoCloseable {
 
 	DiskWriter writer;
 
-	byte[] bs = new byte[8 * 3]; // to save long type start point + size + end point
+	byte[] bs = new byte[8 * 4]; // to save long type start point + size + end point + sequence
 	private ByteBuffer bb = ByteBuffer.allocate(8);
 
 	public IndexWriter(DiskWriter writer) throws FileNotFoundException {
 		this.writer = writer;
 	}
 
+	/**
+	 * for a subclass which does not use DiskWriter, see {@link MappedIndexWriter}
+	 */
+	protected IndexWriter() {
+	}
+
 	/**
 	 * @return 3 size of array which is {start_point, size, end_point} see {@link CircularBufferInfo }
 	 * @throws IOException
 	 */
 	public long[] readAll() throws IOException {
 		writer.seek(0);
-		writer.read(bs);
+		writer.read(bs, 0, 24);
 
 		return new long[] { toLong(0), toLong(8), toLong(16) };
 	}
 
+	/**
+	 * @return sequence saved by {@link #writeAll(long, long, long, long)}, 0 if it has not been saved
+	 * @throws IOException
+	 */
+	public long readSequence() throws IOException {
+		Arrays.fill(bs, 24, 32, (byte) 0); // the file can be shorter
+		writer.seek(24);
+		writer.read(bs, 24, 8);
+
+		return toLong(24);
+	}
+
 	public void toByte(long n, int offset) {
 		bb.rewind();
 		bb.putLong(n).rewind();
@@ -60,6 +79,39 @@ public class IndexWriter implements AutoCloseable {
 		writer.write(bs, 8, 16);
 	}
 
+	/**
+	 * writes all of them at once.
+	 */
+	public void writeAll(long start, long size, long end) throws IOException {
+		writer.seek(0);
+		toByte(start, 0);
+		toByte(size, 8);
+		toByte(end, 16);
+		writer.write(bs, 0, 24);
+	}
+
+	/**
+	 * writes all of them and the sequence of the log at once, see
+	 * {@link cororok.circular_buffer.LoggedCircularDiskQueue}. The sequence is after end point so it is still the same
+	 * index without it. {@link cororok.circular_buffer.CheckedCircularDiskQueueAndStack} keeps its checksum algorithm
+	 * there instead.
+	 */
+	public void writeAll(long start, long size, long end, long sequence) throws IOException {
+		writer.seek(0);
+		toByte(start, 0);
+		toByte(size, 8);
+		toByte(end, 16);
+		toByte(sequence, 24);
+		writer.write(bs);
+	}
+
+	/**
+	 * see {@link DiskWriter#force()}
+	 */
+	public void force() throws IOException {
+		writer.force();
+	}
+
 	@Override
 	public void close() throws Exception {
 		writer.close();
@@ -0,0 +1,273 @@
+package cororok.circular_buffer.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * It maps the file into memory so read/write is just a memory copy without any system call. Because a single
+ * MappedByteBuffer can not be bigger than 2G it divides the file into fixed size windows(segments) and maps each of them
+ * only when it is accessed. A segment starts small and grows(remaps) up to the segment size so a small file like the
+ * index does not become as big as the segment size. It never maps beyond the max size, usually the capacity of the
+ * queue, because mapping makes the file that big.
+ *
+ * Note the mapped memory is released by GC not by {@link #close()}.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class MappedDiskWriter extends DiskWriter {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 30; // 1g
+	static final int MIN_MAP_SIZE = 4096; // a page
+
+	RandomAccessFile file;
+	FileChannel channel;
+	File dataFile;
+
+	final int segmentSize;
+	final long maxSize;
+	MappedByteBuffer[] segments = new MappedByteBuffer[1];
+
+	/**
+	 * current position like RandomAccessFile
+	 */
+	long position;
+
+	public MappedDiskWriter(File dataFile) throws IOException {
+		this(dataFile, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param dataFile
+	 * @param segmentSize
+	 *            maximum size of a single mapped window
+	 * @throws IOException
+	 */
+	public MappedDiskWriter(File dataFile, int segmentSize) throws IOException {
+		this(dataFile, segmentSize, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param dataFile
+	 * @param segmentSize
+	 *            maximum size of a single mapped window
+	 * @param maxSize
+	 *            the file is not mapped beyond this, usually the capacity of the queue
+	 * @throws IOException
+	 */
+	public MappedDiskWriter(File dataFile, int segmentSize, long maxSize) throws IOException {
+		if (segmentSize <= 0)
+			throw new IllegalArgumentException("wrong segment size " + segmentSize);
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("wrong max size " + maxSize);
+
+		this.dataFile = dataFile;
+		this.segmentSize = segmentSize;
+		this.maxSize = maxSize;
+		this.file = new RandomAccessFile(dataFile, "rw");
+		this.channel = file.getChannel();
+	}
+
+	@Override
+	public void seek(long pos) throws IOException {
+		position = pos;
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		copy(position, b, off, len, true);
+		position += len;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		copy(position, b, off, len, false);
+		position += len;
+		return len;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	/*
+	 * both pieces are copied directly, no need to seek.
+	 */
+	@Override
+	public byte[] readStorage(long[] range) throws IOException {
+		int size1 = (int) (range[1] - range[0]);
+		if (range.length == 2) {
+			byte[] result = new byte[size1];
+			copy(range[0], result, 0, size1, false);
+			return result;
+		}
+
+		int size2 = (int) (range[3] - range[2]);
+		byte[] result = new byte[size1 + size2];
+		copy(range[0], result, 0, size1, false); // part 1
+		copy(range[2], result, size1, size2, false); // part 2
+		return result;
+	}
+
+	@Override
+	public void readStorage(long[] range, byte[] dst) throws IOException {
+		int size1 = (int) (range[1] - range[0]);
+		copy(range[0], dst, 0, size1, false);
+		if (range.length == 4) // two pieces
+			copy(range[2], dst, size1, (int) (range[3] - range[2]), false);
+	}
+
+	@Override
+	public void readStorage(long[] range, ByteBuffer dst) throws IOException {
+		copy(range[0], dst, (int) (range[1] - range[0]));
+		if (range.length == 4) // two pieces
+			copy(range[2], dst, (int) (range[3] - range[2]));
+	}
+
+	/*
+	 * a slice of the mapped segment if the range is in a single segment.
+	 */
+	@Override
+	public ByteBuffer view(long[] range) throws IOException {
+		if (range.length != 2)
+			return null;
+
+		int index = (int) (range[0] / segmentSize);
+		int offset = (int) (range[0] % segmentSize);
+		long end = offset + range[1] - range[0];
+		if (end > segmentSize)
+			return null;
+
+		ByteBuffer view = segment(index, (int) end).duplicate();
+		((Buffer) view).limit((int) end).position(offset);
+		return view.slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public void writeStorage(long[] range, byte[] bs) throws IOException {
+		int size1 = (int) (range[1] - range[0]);
+		if (range.length == 2) {
+			copy(range[0], bs, 0, bs.length, true);
+		} else { // two pieces
+			int size2 = (int) (range[3] - range[2]);
+			copy(range[0], bs, 0, size1, true); // part 1
+			copy(range[2], bs, size1, size2, true); // part 2
+		}
+	}
+
+	/**
+	 * copies between the file and the given array, it can go over several segments.
+	 *
+	 * @param pos
+	 *            position in the file
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @param toFile
+	 *            true if it writes b into the file, false if it reads the file into b
+	 * @throws IOException
+	 */
+	void copy(long pos, byte[] b, int off, int len, boolean toFile) throws IOException {
+		while (len > 0) {
+			int index = (int) (pos / segmentSize);
+			int offset = (int) (pos % segmentSize);
+			int piece = Math.min(len, segmentSize - offset);
+
+			MappedByteBuffer segment = segment(index, offset + piece);
+			((Buffer) segment).position(offset);
+			if (toFile)
+				segment.put(b, off, piece);
+			else
+				segment.get(b, off, piece);
+
+			pos += piece;
+			off += piece;
+			len -= piece;
+		}
+	}
+
+	/**
+	 * the same as {@link #copy(long, byte[], int, int, boolean)} but copies from the file into the given buffer.
+	 */
+	void copy(long pos, ByteBuffer dst, int len) throws IOException {
+		while (len > 0) {
+			int index = (int) (pos / segmentSize);
+			int offset = (int) (pos % segmentSize);
+			int piece = Math.min(len, segmentSize - offset);
+
+			ByteBuffer src = segment(index, offset + piece).duplicate();
+			((Buffer) src).limit(offset + piece).position(offset);
+			dst.put(src);
+
+			pos += piece;
+			len -= piece;
+		}
+	}
+
+	/**
+	 * @param index
+	 *            # of segment
+	 * @param required
+	 *            the segment should be mapped at least this size
+	 * @return mapped segment
+	 * @throws IOException
+	 *             if it is beyond the max size
+	 */
+	MappedByteBuffer segment(int index, int required) throws IOException {
+		if (index >= segments.length)
+			segments = Arrays.copyOf(segments, Math.max(index + 1, segments.length * 2));
+
+		MappedByteBuffer segment = segments[index];
+		if (segment != null && segment.capacity() >= required)
+			return segment;
+
+		long limit = Math.min(segmentSize, maxSize - (long) index * segmentSize);
+		if (required > limit)
+			throw new IOException("beyond the max size " + maxSize + " of " + dataFile);
+
+		long mapSize = segment == null ? MIN_MAP_SIZE : segment.capacity() * 2L;
+		mapSize = Math.max(mapSize, required);
+		mapSize = Math.min(mapSize, limit);
+
+		segment = channel.map(MapMode.READ_WRITE, (long) index * segmentSize, mapSize);
+		segments[index] = segment;
+		return segment;
+	}
+
+	@Override
+	public void transferTo(long[] range, WritableByteChannel target) throws IOException {
+		transferTo(channel, range, target);
+	}
+
+	@Override
+	public void force() throws IOException {
+		for (MappedByteBuffer segment : segments) {
+			if (segment != null)
+				segment.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		segments = new MappedByteBuffer[1];
+		file.close();
+	}
+
+	@Override
+	public File geteFile() {
+		return dataFile;
+	}
+}
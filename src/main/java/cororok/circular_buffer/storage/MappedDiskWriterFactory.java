@@ -0,0 +1,43 @@
+package cororok.circular_buffer.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author songduk.park cororok@gmail.com
+ */
+public class MappedDiskWriterFactory implements DiskWriterFactory {
+
+	final int segmentSize;
+
+	public MappedDiskWriterFactory() {
+		this(MappedDiskWriter.DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param segmentSize
+	 *            maximum size of a single mapped window, see {@link MappedDiskWriter}
+	 */
+	public MappedDiskWriterFactory(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	@Override
+	public DiskWriter createStorageWriter(File dataFile) throws IOException {
+		return new MappedDiskWriter(dataFile, segmentSize);
+	}
+
+	@Override
+	public DiskWriter createStorageWriter(File dataFile, long capacity) throws IOException {
+		return new MappedDiskWriter(dataFile, segmentSize, capacity);
+	}
+
+	/*
+	 * it can open an index of IndexWriter too.
+	 */
+	@Override
+	public IndexWriter createIndexWriter(File indexFile) throws IOException {
+		return new MappedIndexWriter(indexFile);
+	}
+
+}
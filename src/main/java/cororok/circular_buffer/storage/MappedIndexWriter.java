@@ -0,0 +1,157 @@
+package cororok.circular_buffer.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.CRC32;
+
+import cororok.circular_buffer.CircularBufferInfo;
+
+/**
+ * An {@link IndexWriter} over a memory mapped page so writing the index is a memory copy without any system call. It
+ * has two slots and writes them by turns, each slot is [version8][start8][size8][end8][sequence8][crc8] where crc is
+ * CRC32 of the first 40 bytes. A torn write breaks only the slot it was writing so readAll returns the valid slot
+ * which has the bigger version, the one before the torn write at worst.
+ *
+ * The page starts with MAGIC. A file without it is the format of IndexWriter, [start8][size8][end8], and it is moved
+ * into the slots when it is opened so an existing index can be opened by this, not the other way around.
+ *
+ * Note the mapped memory is released by GC not by {@link #close()}.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class MappedIndexWriter extends IndexWriter {
+	static final long MAGIC = 0x4344_4249_6E64_7832L; // CDBIndx2
+	static final int PAGE_SIZE = MappedDiskWriter.MIN_MAP_SIZE;
+	static final int[] SLOT_OFFSETS = { 64, 128 }; // different cache lines
+	static final int SLOT_SIZE = 8 * 6;
+	static final int CRC_OFFSET = 8 * 5;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer page;
+	private final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+	private final CRC32 crc = new CRC32();
+
+	// what the newest slot has
+	private long version;
+	private long start;
+	private long size;
+	private long end;
+	private long sequence;
+
+	public MappedIndexWriter(File indexFile) throws IOException {
+		this.file = new RandomAccessFile(indexFile, "rw");
+		try {
+			this.page = file.getChannel().map(MapMode.READ_WRITE, 0, PAGE_SIZE);
+			if (page.getLong(0) == MAGIC) {
+				readAll();
+			} else { // new or IndexWriter's
+				writeAll(page.getLong(0), page.getLong(8), page.getLong(16), 0);
+				page.force();
+				page.putLong(0, MAGIC);
+				page.force();
+			}
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return {start_point, size, end_point} of the newest valid slot, see {@link CircularBufferInfo }
+	 * @throws IOException
+	 *             if both slots are broken
+	 */
+	@Override
+	public long[] readAll() throws IOException {
+		long newest = -1;
+		for (int offset : SLOT_OFFSETS) {
+			readSlot(offset);
+			if (slot.getLong(CRC_OFFSET) != crcOfSlot())
+				continue;
+
+			long v = slot.getLong(0);
+			if (v > newest) {
+				newest = v;
+				start = slot.getLong(8);
+				size = slot.getLong(16);
+				end = slot.getLong(24);
+				sequence = slot.getLong(32);
+			}
+		}
+		if (newest < 0)
+			throw new IOException("broken index, no valid slot");
+
+		version = newest;
+		return new long[] { start, size, end };
+	}
+
+	@Override
+	public long readSequence() throws IOException {
+		readAll();
+		return sequence;
+	}
+
+	private void readSlot(int offset) {
+		((Buffer) page).position(offset);
+		page.get(slot.array());
+	}
+
+	private long crcOfSlot() {
+		crc.reset();
+		crc.update(slot.array(), 0, CRC_OFFSET);
+		return crc.getValue();
+	}
+
+	@Override
+	public void writeStartAndSize(long start, long size) throws IOException {
+		writeAll(start, size, end, sequence);
+	}
+
+	@Override
+	public void writeEndAndSize(long end, long size) throws IOException {
+		writeAll(start, size, end, sequence);
+	}
+
+	@Override
+	public void writeAll(long start, long size, long end) throws IOException {
+		writeAll(start, size, end, sequence);
+	}
+
+	/**
+	 * writes the slot older than the newest one.
+	 */
+	@Override
+	public void writeAll(long start, long size, long end, long sequence) throws IOException {
+		long v = version + 1;
+		slot.putLong(0, v);
+		slot.putLong(8, start);
+		slot.putLong(16, size);
+		slot.putLong(24, end);
+		slot.putLong(32, sequence);
+		slot.putLong(CRC_OFFSET, crcOfSlot());
+
+		((Buffer) page).position(SLOT_OFFSETS[(int) (v & 1)]);
+		page.put(slot.array());
+
+		this.version = v;
+		this.start = start;
+		this.size = size;
+		this.end = end;
+		this.sequence = sequence;
+	}
+
+	@Override
+	public void force() throws IOException {
+		page.force();
+	}
+
+	@Override
+	public void close() throws Exception {
+		file.close();
+	}
+}
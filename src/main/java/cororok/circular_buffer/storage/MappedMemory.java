@@ -0,0 +1,393 @@
+package cororok.circular_buffer.storage;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A mapped region of a file which can be read/written with volatile, ordered(release) and compare-and-swap operations
+ * like AtomicLong. Because the operations are on the mapped memory itself, not on a field, they are visible to the
+ * other threads and also to the other processes mapping the same file. ByteBuffer can not do it before Java 9 so it
+ * uses sun.misc.Unsafe with the address of the mapped buffer, the same way as Chronicle and Aeron.
+ *
+ * Unsafe is not referenced by the code, it is looked up by reflection and called through method handles so it
+ * compiles without warnings against the public API of Java 8(--release 8). If it is not there the same operations are
+ * done by the absolute get/put of the mapped buffer under a lock shared by all the instances, which is atomic only
+ * within this process, see {@link #isAtomicAcrossProcesses()}. Both of them use the native byte order so they read the
+ * same file in the same way.
+ *
+ * All the methods take an offset from the beginning of the region. Volatile/CAS long needs an offset of a multiple of
+ * 8 and int needs 4 otherwise it may not be atomic. Copying byte[] is a plain copy, publish it by an ordered write
+ * after it.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class MappedMemory {
+
+	/**
+	 * method handles of sun.misc.Unsafe, all of them are null if it is not available
+	 */
+	static final class UnsafeHandles {
+		static final Object UNSAFE = theUnsafe();
+
+		static final MethodHandle GET_LONG = find("getLong", long.class, Object.class, long.class);
+		static final MethodHandle GET_LONG_VOLATILE = find("getLongVolatile", long.class, Object.class, long.class);
+		static final MethodHandle PUT_ORDERED_LONG = find("putOrderedLong", void.class, Object.class, long.class,
+				long.class);
+		static final MethodHandle PUT_LONG_VOLATILE = find("putLongVolatile", void.class, Object.class, long.class,
+				long.class);
+		static final MethodHandle CAS_LONG = find("compareAndSwapLong", boolean.class, Object.class, long.class,
+				long.class, long.class);
+		static final MethodHandle GET_AND_ADD_LONG = find("getAndAddLong", long.class, Object.class, long.class,
+				long.class);
+		static final MethodHandle GET_INT_VOLATILE = find("getIntVolatile", int.class, Object.class, long.class);
+		static final MethodHandle PUT_ORDERED_INT = find("putOrderedInt", void.class, Object.class, long.class,
+				int.class);
+		static final MethodHandle CAS_INT = find("compareAndSwapInt", boolean.class, Object.class, long.class,
+				int.class, int.class);
+		static final MethodHandle COPY_MEMORY = find("copyMemory", void.class, Object.class, long.class, Object.class,
+				long.class, long.class);
+		static final MethodHandle SET_MEMORY = find("setMemory", void.class, long.class, long.class, byte.class);
+
+		static final long ADDRESS_OFFSET = addressOffset();
+		static final long BYTE_ARRAY_OFFSET = byteArrayOffset();
+
+		static final boolean AVAILABLE = GET_LONG != null && GET_LONG_VOLATILE != null && PUT_ORDERED_LONG != null
+				&& PUT_LONG_VOLATILE != null && CAS_LONG != null && GET_AND_ADD_LONG != null
+				&& GET_INT_VOLATILE != null && PUT_ORDERED_INT != null && CAS_INT != null && COPY_MEMORY != null
+				&& SET_MEMORY != null && ADDRESS_OFFSET >= 0 && BYTE_ARRAY_OFFSET >= 0;
+
+		private static Object theUnsafe() {
+			try {
+				Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				return field.get(null);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		private static MethodHandle find(String name, Class<?> returnType, Class<?>... parameterTypes) {
+			if (UNSAFE == null)
+				return null;
+			try {
+				return MethodHandles.lookup()
+						.findVirtual(UNSAFE.getClass(), name, MethodType.methodType(returnType, parameterTypes))
+						.bindTo(UNSAFE);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		private static long addressOffset() {
+			if (UNSAFE == null)
+				return -1;
+			try {
+				Field address = Buffer.class.getDeclaredField("address");
+				return (long) UNSAFE.getClass().getMethod("objectFieldOffset", Field.class).invoke(UNSAFE, address);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return -1;
+			}
+		}
+
+		private static long byteArrayOffset() {
+			if (UNSAFE == null)
+				return -1;
+			try {
+				return (int) UNSAFE.getClass().getMethod("arrayBaseOffset", Class.class).invoke(UNSAFE, byte[].class);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * the lock of all the instances without Unsafe so two of them mapping the same file are atomic too
+	 */
+	private static final Object FALLBACK_LOCK = new Object();
+
+	/**
+	 * keeps the mapping alive, it is unmapped when this is collected
+	 */
+	final MappedByteBuffer buffer;
+	final long address;
+	final long size;
+	final boolean useUnsafe;
+
+	/**
+	 * @param channel
+	 * @param size
+	 *            it maps from 0 to this size, it can not be bigger than Integer.MAX_VALUE
+	 * @throws IOException
+	 */
+	public MappedMemory(FileChannel channel, long size) throws IOException {
+		this(channel, size, UnsafeHandles.AVAILABLE);
+	}
+
+	/**
+	 * @param channel
+	 * @param size
+	 * @param useUnsafe
+	 *            false to use the mapped buffer under a lock even if Unsafe is available
+	 * @throws IOException
+	 */
+	MappedMemory(FileChannel channel, long size, boolean useUnsafe) throws IOException {
+		if (size <= 0 || size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("wrong size " + size);
+		if (useUnsafe && UnsafeHandles.AVAILABLE == false)
+			throw new IllegalStateException("sun.misc.Unsafe is not available");
+
+		this.size = size;
+		this.useUnsafe = useUnsafe;
+		this.buffer = channel.map(MapMode.READ_WRITE, 0, size);
+		this.buffer.order(ByteOrder.nativeOrder()); // the same as Unsafe
+		try {
+			this.address = useUnsafe ? (long) UnsafeHandles.GET_LONG.invokeExact((Object) buffer,
+					UnsafeHandles.ADDRESS_OFFSET) : 0;
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * @return true if the operations are atomic for the other processes too, false if only within this process
+	 */
+	public boolean isAtomicAcrossProcesses() {
+		return useUnsafe;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public long getLongVolatile(long offset) {
+		check(offset, 8);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				return buffer.getLong((int) offset);
+			}
+		}
+		try {
+			return (long) UnsafeHandles.GET_LONG_VOLATILE.invokeExact((Object) null, address + offset);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * like AtomicLong.lazySet, every write before this is visible before this.
+	 */
+	public void putLongOrdered(long offset, long value) {
+		check(offset, 8);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				buffer.putLong((int) offset, value);
+			}
+			return;
+		}
+		try {
+			UnsafeHandles.PUT_ORDERED_LONG.invokeExact((Object) null, address + offset, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	public void putLongVolatile(long offset, long value) {
+		check(offset, 8);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				buffer.putLong((int) offset, value);
+			}
+			return;
+		}
+		try {
+			UnsafeHandles.PUT_LONG_VOLATILE.invokeExact((Object) null, address + offset, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	public boolean compareAndSwapLong(long offset, long expected, long value) {
+		check(offset, 8);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				if (buffer.getLong((int) offset) != expected)
+					return false;
+				buffer.putLong((int) offset, value);
+				return true;
+			}
+		}
+		try {
+			return (boolean) UnsafeHandles.CAS_LONG.invokeExact((Object) null, address + offset, expected, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * like AtomicLong.getAndAdd.
+	 */
+	public long getAndAddLong(long offset, long delta) {
+		check(offset, 8);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				long result = buffer.getLong((int) offset);
+				buffer.putLong((int) offset, result + delta);
+				return result;
+			}
+		}
+		try {
+			return (long) UnsafeHandles.GET_AND_ADD_LONG.invokeExact((Object) null, address + offset, delta);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	public int getIntVolatile(long offset) {
+		check(offset, 4);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				return buffer.getInt((int) offset);
+			}
+		}
+		try {
+			return (int) UnsafeHandles.GET_INT_VOLATILE.invokeExact((Object) null, address + offset);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	public void putIntOrdered(long offset, int value) {
+		check(offset, 4);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				buffer.putInt((int) offset, value);
+			}
+			return;
+		}
+		try {
+			UnsafeHandles.PUT_ORDERED_INT.invokeExact((Object) null, address + offset, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	public boolean compareAndSwapInt(long offset, int expected, int value) {
+		check(offset, 4);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				if (buffer.getInt((int) offset) != expected)
+					return false;
+				buffer.putInt((int) offset, value);
+				return true;
+			}
+		}
+		try {
+			return (boolean) UnsafeHandles.CAS_INT.invokeExact((Object) null, address + offset, expected, value);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * copies the given array into the region.
+	 */
+	public void put(long offset, byte[] src, int off, int len) {
+		check(offset, len);
+		check(src, off, len);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				ByteBuffer dst = buffer.duplicate();
+				((Buffer) dst).position((int) offset);
+				dst.put(src, off, len);
+			}
+			return;
+		}
+		try {
+			UnsafeHandles.COPY_MEMORY.invokeExact((Object) src, UnsafeHandles.BYTE_ARRAY_OFFSET + off, (Object) null,
+					address + offset, (long) len);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * copies the region into the given array.
+	 */
+	public void get(long offset, byte[] dst, int off, int len) {
+		check(offset, len);
+		check(dst, off, len);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				ByteBuffer src = buffer.duplicate();
+				((Buffer) src).position((int) offset);
+				src.get(dst, off, len);
+			}
+			return;
+		}
+		try {
+			UnsafeHandles.COPY_MEMORY.invokeExact((Object) null, address + offset, (Object) dst,
+					UnsafeHandles.BYTE_ARRAY_OFFSET + off, (long) len);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * fills the region with 0.
+	 */
+	public void clear(long offset, long len) {
+		check(offset, len);
+		if (useUnsafe == false) {
+			synchronized (FALLBACK_LOCK) {
+				for (long i = offset, end = offset + len; i < end; i++)
+					buffer.put((int) i, (byte) 0);
+			}
+			return;
+		}
+		try {
+			UnsafeHandles.SET_MEMORY.invokeExact(address + offset, len, (byte) 0);
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * a wrong offset would crash JVM instead of an exception.
+	 */
+	private void check(long offset, long len) {
+		if (offset < 0 || len < 0 || offset + len > size)
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + len + ", size " + size);
+	}
+
+	private static void check(byte[] bs, int off, int len) {
+		if (off < 0 || len < 0 || off + len > bs.length)
+			throw new IndexOutOfBoundsException("offset " + off + ", length " + len + ", array " + bs.length);
+	}
+
+	/*
+	 * the operations of Unsafe do not throw checked exceptions.
+	 */
+	private static RuntimeException rethrow(Throwable e) {
+		if (e instanceof RuntimeException)
+			return (RuntimeException) e;
+		if (e instanceof Error)
+			throw (Error) e;
+		return new IllegalStateException(e);
+	}
+
+	/**
+	 * saves the region into the storage physically.
+	 */
+	public void force() {
+		buffer.force();
+	}
+}
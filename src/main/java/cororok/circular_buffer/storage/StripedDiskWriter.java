@@ -0,0 +1,306 @@
+package cororok.circular_buffer.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * It stripes a single logical file over several files, one per directory(device), like RAID 0. A logical position is
+ * divided into fixed size stripes which go to the devices in turn so stripe k is in device k % N at (k / N) *
+ * stripeSize. A read/write bigger than a stripe is split per device and the devices are read/written at the same time,
+ * the calling thread does the first device and background threads do the others. Smaller ones are done by the calling
+ * thread only. The logical file can be N times bigger than a single device.
+ *
+ * Each device file has the same name as the logical file in its directory so if the logical file is in the first
+ * directory the first device file is the logical file itself. It starts with the layout, [magic][stripe size][# of
+ * devices][index of the device], which is written when the file is created and checked when it is opened so it can not
+ * open the files with other directories, another order of them or another stripe size.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class StripedDiskWriter extends DiskWriter {
+	static final long MAGIC = 0x4344_4253_7472_7031L; // CDBStrp1
+	static final int LAYOUT_SIZE = 32;
+
+	final File dataFile;
+	final DiskWriter[] devices;
+	final int stripeSize;
+
+	/**
+	 * current position in the logical file
+	 */
+	long position;
+
+	/**
+	 * threads for the devices other than the one of the calling thread, created when it is needed first.
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * @param dataFile
+	 *            the logical file
+	 * @param dirs
+	 *            directories of the devices
+	 * @param stripeSize
+	 * @param facotry
+	 *            creates the writer of each device file
+	 * @throws IOException
+	 *             if the layout of the files is not the given one
+	 */
+	public StripedDiskWriter(File dataFile, File[] dirs, int stripeSize, DiskWriterFactory facotry)
+			throws IOException {
+		this(dataFile, dirs, stripeSize, facotry, 0);
+	}
+
+	/**
+	 * @param dataFile
+	 * @param dirs
+	 * @param stripeSize
+	 * @param facotry
+	 * @param capacity
+	 *            size of the logical file so each device file is given its share, 0 if it is unknown
+	 * @throws IOException
+	 *             if the layout of the files is not the given one
+	 */
+	public StripedDiskWriter(File dataFile, File[] dirs, int stripeSize, DiskWriterFactory facotry, long capacity)
+			throws IOException {
+		if (dirs.length == 0)
+			throw new IllegalArgumentException("no directory");
+		if (stripeSize <= 0)
+			throw new IllegalArgumentException("wrong stripe size " + stripeSize);
+
+		this.dataFile = dataFile;
+		this.stripeSize = stripeSize;
+		this.devices = new DiskWriter[dirs.length];
+		try {
+			long stripes = (capacity + stripeSize - 1) / stripeSize;
+			long deviceSize = (stripes + dirs.length - 1) / dirs.length * stripeSize;
+			for (int i = 0; i < dirs.length; i++) {
+				File deviceFile = new File(dirs[i], dataFile.getName());
+				if (capacity > 0)
+					devices[i] = facotry.createStorageWriter(deviceFile, LAYOUT_SIZE + deviceSize);
+				else
+					devices[i] = facotry.createStorageWriter(deviceFile);
+				checkLayout(i, deviceFile);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * writes the layout into a new device file or checks the one it has.
+	 */
+	private void checkLayout(int index, File deviceFile) throws IOException {
+		DiskWriter device = devices[index];
+		ByteBuffer layout = ByteBuffer.allocate(LAYOUT_SIZE);
+		device.seek(0);
+		int read = device.read(layout.array(), 0, LAYOUT_SIZE);
+		if (read <= 0 || layout.getLong(0) == 0) { // new
+			layout.putLong(0, MAGIC).putInt(8, stripeSize).putInt(12, devices.length).putInt(16, index);
+			device.seek(0);
+			device.write(layout.array());
+		} else if (layout.getLong(0) != MAGIC || layout.getInt(8) != stripeSize
+				|| layout.getInt(12) != devices.length || layout.getInt(16) != index) {
+			throw new IOException("wrong stripe layout of " + deviceFile + ", stripe size " + layout.getInt(8)
+					+ " device " + layout.getInt(16) + " of " + layout.getInt(12) + ", expected " + stripeSize + " "
+					+ index + " of " + devices.length);
+		}
+	}
+
+	@Override
+	public void seek(long pos) throws IOException {
+		position = pos;
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (pieceOf(position, len) == len) { // a single stripe
+			seekDevice(position).write(b, off, len);
+		} else {
+			inParallel(b, off, len, true);
+		}
+		position += len;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int total;
+		if (pieceOf(position, len) == len) { // a single stripe
+			total = Math.max(0, seekDevice(position).read(b, off, len));
+		} else {
+			total = inParallel(b, off, len, false);
+		}
+		position += total;
+		return total == 0 && len > 0 ? -1 : total;
+	}
+
+	/**
+	 * reads/writes the pieces of each device in a thread of the device.
+	 *
+	 * @return bytes until the end of the device file which ends first, len for writing
+	 */
+	private int inParallel(byte[] b, int off, int len, boolean write) throws IOException {
+		List<long[]> pieces = new ArrayList<>(); // {logical position, offset in b, length}
+		for (long pos = position, end = position + len; pos < end;) {
+			int piece = pieceOf(pos, (int) (end - pos));
+			pieces.add(new long[] { pos, off + pos - position, piece });
+			pos += piece;
+		}
+
+		int[] done = new int[pieces.size()];
+		int first = deviceIndexOf(position);
+		List<Future<Void>> futures = new ArrayList<>();
+		for (int i = 1; i < Math.min(devices.length, pieces.size()); i++) {
+			int device = (first + i) % devices.length;
+			futures.add(executor().submit(() -> {
+				doPieces(device, pieces, done, b, write);
+				return null;
+			}));
+		}
+
+		IOException error = null;
+		try {
+			doPieces(first, pieces, done, b, write);
+		} catch (IOException e) {
+			error = e;
+		}
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (error == null)
+					error = new InterruptedIOException();
+			} catch (ExecutionException e) {
+				if (error == null)
+					error = e.getCause() instanceof IOException ? (IOException) e.getCause()
+							: new IOException(e.getCause());
+			}
+		}
+		if (error != null)
+			throw error;
+
+		int total = 0;
+		for (int i = 0; i < done.length; i++) {
+			total += done[i];
+			if (done[i] < pieces.get(i)[2])
+				break; // end of the device file
+		}
+		return total;
+	}
+
+	/**
+	 * reads/writes the pieces of the given device in order and puts how much it did into done.
+	 */
+	private void doPieces(int device, List<long[]> pieces, int[] done, byte[] b, boolean write) throws IOException {
+		for (int i = 0; i < pieces.size(); i++) {
+			long[] piece = pieces.get(i);
+			if (deviceIndexOf(piece[0]) != device)
+				continue;
+
+			DiskWriter writer = seekDevice(piece[0]);
+			if (write) {
+				writer.write(b, (int) piece[1], (int) piece[2]);
+				done[i] = (int) piece[2];
+			} else {
+				int read = writer.read(b, (int) piece[1], (int) piece[2]);
+				if (read <= 0)
+					break; // end of the device file
+				done[i] = read;
+			}
+		}
+	}
+
+	private synchronized ThreadPoolExecutor executor() {
+		if (executor == null) {
+			int threads = devices.length - 1;
+			executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+					r -> {
+						Thread thread = new Thread(r, "circular-disk-stripe");
+						thread.setDaemon(true);
+						return thread;
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * @param pos
+	 *            logical position
+	 * @param len
+	 * @return how much it can read/write from the position without going over the stripe
+	 */
+	int pieceOf(long pos, int len) {
+		return (int) Math.min(len, stripeSize - pos % stripeSize);
+	}
+
+	int deviceIndexOf(long pos) {
+		return (int) (pos / stripeSize % devices.length);
+	}
+
+	/**
+	 * @param pos
+	 *            logical position
+	 * @return device of the position after moving it to the position in the device
+	 * @throws IOException
+	 */
+	DiskWriter seekDevice(long pos) throws IOException {
+		long stripe = pos / stripeSize;
+		DiskWriter device = devices[(int) (stripe % devices.length)];
+		device.seek(LAYOUT_SIZE + stripe / devices.length * stripeSize + pos % stripeSize);
+		return device;
+	}
+
+	@Override
+	public void force() throws IOException {
+		for (DiskWriter device : devices)
+			device.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (executor != null)
+				executor.shutdown();
+		}
+
+		IOException first = null;
+		for (DiskWriter device : devices) {
+			try {
+				if (device != null)
+					device.close();
+			} catch (Exception e) {
+				if (first == null)
+					first = e instanceof IOException ? (IOException) e : new IOException(e);
+			}
+		}
+		if (first != null)
+			throw first;
+	}
+
+	@Override
+	public File geteFile() {
+		return dataFile;
+	}
+}
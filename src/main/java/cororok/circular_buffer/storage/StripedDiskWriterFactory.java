@@ -0,0 +1,58 @@
+package cororok.circular_buffer.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates {@link StripedDiskWriter} over the given directories. Put the queue file in the first directory, e.g.
+ * new CircularDiskQueueAndStack(capacity, "/disk1/queue", new StripedDiskWriterFactory(disk1, disk2)), then the first
+ * stripes, the index(smaller than a stripe) and the lock file stay in the first directory. The directories and the
+ * stripe size should be the same whenever it is opened, see {@link StripedDiskWriter}.
+ *
+ * @author songduk.park cororok@gmail.com
+ */
+public class StripedDiskWriterFactory implements DiskWriterFactory {
+
+	public static final int DEFAULT_STRIPE_SIZE = 64 * 1024;
+
+	final File[] dirs;
+	final int stripeSize;
+	final DiskWriterFactory facotry;
+
+	public StripedDiskWriterFactory(File... dirs) {
+		this(dirs, DEFAULT_STRIPE_SIZE, new DefaultDiskWriterFactory());
+	}
+
+	/**
+	 * @param dirs
+	 *            directories of the devices
+	 * @param stripeSize
+	 *            bytes it writes into a device before moving to the next one
+	 * @param facotry
+	 *            creates the writer of each device file
+	 */
+	public StripedDiskWriterFactory(File[] dirs, int stripeSize, DiskWriterFactory facotry) {
+		this.dirs = dirs.clone();
+		this.stripeSize = stripeSize;
+		this.facotry = facotry;
+	}
+
+	@Override
+	public DiskWriter createStorageWriter(File dataFile) throws IOException {
+		return new StripedDiskWriter(dataFile, dirs, stripeSize, facotry);
+	}
+
+	@Override
+	public DiskWriter createStorageWriter(File dataFile, long capacity) throws IOException {
+		return new StripedDiskWriter(dataFile, dirs, stripeSize, facotry, capacity);
+	}
+
+	/*
+	 * the index is small so it is not striped, it is a single file next to the queue file.
+	 */
+	@Override
+	public IndexWriter createIndexWriter(File indexFile) throws IOException {
+		return facotry.createIndexWriter(indexFile);
+	}
+
+}
@@ -0,0 +1,112 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockingDiskQueueTest {
+	final String fileName = "dqtest.txt";
+
+	@Test
+	public void testTimeout() throws Exception {
+		BlockingDiskQueue test = new BlockingDiskQueue(new CircularDiskQueueAndStack(20, fileName));
+		try {
+			assertNull(test.poll(10, TimeUnit.MILLISECONDS));
+
+			byte[] in = "12345678".getBytes(); // 12 with header
+			assertTrue(test.offer(in, 10, TimeUnit.MILLISECONDS));
+			assertFalse(test.offer(in, 10, TimeUnit.MILLISECONDS)); // full
+			assertEquals(1, test.size());
+
+			assertArrayEquals(in, test.poll(10, TimeUnit.MILLISECONDS));
+			assertEquals(0, test.size());
+
+			boolean shouldFail = false;
+			try {
+				test.put(new byte[20]); // never fits
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testTakeWaits() throws Exception {
+		final BlockingDiskQueue test = new BlockingDiskQueue(new CircularDiskDeque(20, fileName));
+		final AtomicReference<byte[]> taken = new AtomicReference<>();
+		final CountDownLatch started = new CountDownLatch(1);
+		try {
+			Thread consumer = new Thread() {
+				public void run() {
+					try {
+						started.countDown();
+						taken.set(test.take());
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			consumer.start();
+			started.await();
+			Thread.sleep(20);
+			assertNull(taken.get());
+
+			byte[] in = "abc".getBytes();
+			test.put(in);
+			consumer.join(1000);
+			assertArrayEquals(in, taken.get());
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testPutWaits() throws Exception {
+		final BlockingDiskQueue test = new BlockingDiskQueue(new CircularDiskQueueAndStack(20, fileName));
+		final byte[] in0 = "12345678".getBytes();
+		final byte[] in1 = "abcdefgh".getBytes();
+		final CountDownLatch done = new CountDownLatch(1);
+		try {
+			test.put(in0);
+			Thread producer = new Thread() {
+				public void run() {
+					try {
+						test.put(in1); // waits until in0 is removed
+						done.countDown();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			producer.start();
+			assertFalse(done.await(20, TimeUnit.MILLISECONDS));
+
+			assertArrayEquals(in0, test.take());
+			assertTrue(done.await(1, TimeUnit.SECONDS));
+			assertArrayEquals(in1, test.take());
+			producer.join();
+		} finally {
+			test.close();
+		}
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+	}
+}
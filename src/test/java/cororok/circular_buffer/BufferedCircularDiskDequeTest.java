@@ -0,0 +1,130 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferedCircularDiskDequeTest {
+
+	final String fileName = "dqtest.txt";
+
+	final byte[] a = "aaaaaa".getBytes();
+	final byte[] b = "bbbbbb".getBytes();
+	final byte[] c = "cccccc".getBytes();
+	final byte[] d = "dddddd".getBytes();
+	final byte[] e = "eeeeee".getBytes();
+	final byte[] f = "ffffff".getBytes();
+
+	@Test
+	public void testBothEnds() throws Exception {
+		try (BufferedCircularDiskDeque test = openBufferedCircularDiskDeque()) {
+			addAll(test); // c b a d e f
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(6, 36, 84, test);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(2, 12, 28, test.deque); // the middle ones
+			assertArrayEquals(a, test.deque.peekFirst());
+			assertArrayEquals(d, test.deque.peekLast());
+
+			// the ends are in memory
+			assertArrayEquals(c, test.peekFirst());
+			assertArrayEquals(f, test.peekLast());
+			assertArrayEquals(f, test.removeLast());
+			assertArrayEquals(e, test.removeLast());
+			assertArrayEquals(c, test.removeFirst());
+			test.addFirst(c);
+			test.addLast(e);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(2, 12, 28, test.deque);
+
+			assertArrayEquals(e, test.removeLast());
+			assertArrayEquals(d, test.removeLast()); // the disk
+			assertArrayEquals(c, test.removeFirst());
+			assertArrayEquals(b, test.removeFirst());
+			assertArrayEquals(a, test.removeLast()); // the head after the disk is empty
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+			assertNull(test.peekFirst());
+			assertNull(test.peekLast());
+		}
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		try (BufferedCircularDiskDeque test = openBufferedCircularDiskDeque()) {
+			addAll(test);
+		}
+
+		try (CircularDiskDeque test = new CircularDiskDeque(200, fileName)) {
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(6, 36, 84, test);
+			assertArrayEquals(c, test.removeFirst());
+			assertArrayEquals(b, test.removeFirst());
+			assertArrayEquals(a, test.removeFirst());
+			assertArrayEquals(f, test.removeLast());
+			assertArrayEquals(e, test.removeLast());
+			assertArrayEquals(d, test.removeLast());
+		}
+	}
+
+	@Test
+	public void testAddFirstBatch() throws Exception {
+		final int[] writes = { Integer.MAX_VALUE }; // it fails after this many writes
+		CircularDiskDeque deque = new CircularDiskDeque(200, fileName) {
+			@Override
+			public synchronized void addFirst(byte[] bs) throws IOException {
+				if (writes[0]-- <= 0)
+					throw new IOException("broken disk");
+				super.addFirst(bs);
+			}
+
+			@Override
+			public synchronized void addFirstBatch(List<byte[]> list) throws IOException {
+				if (writes[0]-- <= 0)
+					throw new IOException("broken disk");
+				super.addFirstBatch(list);
+			}
+		};
+		try (BufferedCircularDiskDeque test = new BufferedCircularDiskDeque(deque, 24)) {
+			test.addFirstBatch(Arrays.asList(a, b, c)); // a goes to the disk
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(3, 18, 42, test);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(1, 6, 14, test.deque);
+
+			writes[0] = 1; // b goes to the disk and c fails
+			try {
+				test.addFirstBatch(Arrays.asList(d, e));
+				fail("broken disk");
+			} catch (IOException ex) {
+			}
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(3, 18, 42, test); // nothing was added
+			writes[0] = Integer.MAX_VALUE;
+
+			test.addFirstBatch(Arrays.asList(d));
+			for (byte[] bs : new byte[][] { d, c, b, a })
+				assertArrayEquals(bs, test.removeFirst());
+		}
+	}
+
+	private void addAll(BufferedCircularDiskDeque test) throws IOException {
+		test.addFirst(a);
+		test.addFirst(b);
+		test.addFirst(c); // a goes to the disk
+		test.addLast(d);
+		test.addLast(e);
+		test.addLast(f); // d goes to the disk
+	}
+
+	private BufferedCircularDiskDeque openBufferedCircularDiskDeque() throws IOException {
+		return new BufferedCircularDiskDeque(new CircularDiskDeque(200, fileName), 24);
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+	}
+
+}
@@ -0,0 +1,182 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferedCircularDiskQueueTest {
+
+	final String fileName = "dqtest.txt";
+
+	final byte[] input = "123456".getBytes();
+	final byte[] input1 = "654321".getBytes();
+	final byte[] input2 = "abcdef".getBytes();
+	final byte[] input3 = "fedcba".getBytes();
+	final byte[] input4 = "ABCDEF".getBytes();
+
+	@Test
+	public void testKeepUp() throws Exception {
+		try (BufferedCircularDiskQueue test = openBufferedCircularDiskQueue()) {
+			for (int i = 0; i < 100; i++) {
+				test.addLast(input);
+				test.addLast(input1);
+				ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(2, 12, 20, test);
+
+				assertArrayEquals(input, test.peekFirst());
+				assertArrayEquals(input, test.removeFirst());
+				assertArrayEquals(input1, test.removeFirst());
+				ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+			}
+			assertNull(test.peekFirst());
+			assertEquals(0, test.queue.getEnd()); // never touched the disk
+		}
+	}
+
+	@Test
+	public void testReadWrite() throws Exception {
+		try (BufferedCircularDiskQueue test = openBufferedCircularDiskQueue()) {
+			test.addLast(input);
+			test.addLast(input1);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(0, 0, 0, test.queue);
+
+			test.addLast(input2);
+			test.addLast(input3);
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(4, 24, 40, test);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(2, 12, 20, test.queue); // the oldest ones
+			assertArrayEquals(input, test.queue.peekFirst());
+
+			assertArrayEquals(input, test.removeFirst());
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(3, 18, 30, test);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(0, 0, 0, test.queue); // read ahead
+
+			test.addLast(input4);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(1, 6, 10, test.queue);
+
+			assertArrayEquals(input1, test.removeFirst());
+			assertArrayEquals(input2, test.removeFirst());
+			assertArrayEquals(input3, test.removeFirst());
+			assertArrayEquals(input4, test.removeFirst());
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+		}
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		try (BufferedCircularDiskQueue test = openBufferedCircularDiskQueue()) {
+			test.addLast(input);
+			test.addLast(input1);
+			test.addLast(input2);
+			test.addLast(input3);
+			test.addLast(input4);
+			assertArrayEquals(input, test.removeFirst()); // head has input1, disk has input2 and tail has the rest
+		}
+
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(100, fileName)) {
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(4, 24, 40, test);
+			assertArrayEquals(input1, test.removeFirst());
+			assertArrayEquals(input2, test.removeFirst());
+			assertArrayEquals(input3, test.removeFirst());
+			assertArrayEquals(input4, test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testDrain() throws Exception {
+		try (BufferedCircularDiskQueue test = openBufferedCircularDiskQueue()) {
+			test.addLast(input);
+			test.addLast(input1);
+			test.addLast(input2);
+			test.addLast(input3);
+			test.addLast(input4);
+
+			List<byte[]> result = test.drainBytes(12); // the disk
+			assertEquals(2, result.size());
+			assertArrayEquals(input, result.get(0));
+			assertArrayEquals(input1, result.get(1));
+
+			result = test.drain(10); // disk and memory
+			assertEquals(3, result.size());
+			assertArrayEquals(input2, result.get(0));
+			assertArrayEquals(input4, result.get(2));
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+		}
+	}
+
+	@Test
+	public void testNoSpace() throws Exception {
+		CircularDiskQueueAndStack queue = new CircularDiskQueueAndStack(35, fileName);
+		try (BufferedCircularDiskQueue test = new BufferedCircularDiskQueue(queue, 100)) {
+			test.addLast(input);
+			test.addLast(input1);
+			test.addLast(input2); // all in memory
+
+			boolean shouldFail = false;
+			try {
+				test.addLast(input3);
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail); // the disk can not save it when it closes
+		}
+	}
+
+	@Test
+	public void testAddLastBatch() throws Exception {
+		final int[] writes = { Integer.MAX_VALUE }; // it fails after this many writes
+		CircularDiskQueueAndStack queue = new CircularDiskQueueAndStack(100, fileName) {
+			@Override
+			public synchronized void addLast(byte[] bs) throws IOException {
+				if (writes[0]-- <= 0)
+					throw new IOException("broken disk");
+				super.addLast(bs);
+			}
+
+			@Override
+			public synchronized void addLastBatch(List<byte[]> list) throws IOException {
+				if (writes[0]-- <= 0)
+					throw new IOException("broken disk");
+				super.addLastBatch(list);
+			}
+		};
+		try (BufferedCircularDiskQueue test = new BufferedCircularDiskQueue(queue, 24)) {
+			test.addLastBatch(Arrays.asList(input, input1, input2)); // the oldest one goes to the disk
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(3, 18, 30, test);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(1, 6, 10, test.queue);
+
+			writes[0] = 1; // input1 goes to the disk and input2 fails
+			try {
+				test.addLastBatch(Arrays.asList(input3, input4));
+				fail("broken disk");
+			} catch (IOException e) {
+			}
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(3, 18, 30, test); // nothing was added
+			writes[0] = Integer.MAX_VALUE;
+
+			test.addLastBatch(Arrays.asList(input3));
+			for (byte[] bs : new byte[][] { input, input1, input2, input3 })
+				assertArrayEquals(bs, test.removeFirst());
+		}
+	}
+
+	private BufferedCircularDiskQueue openBufferedCircularDiskQueue() throws IOException {
+		CircularDiskQueueAndStack queue = new CircularDiskQueueAndStack(100, fileName);
+		return new BufferedCircularDiskQueue(queue, 24);
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+	}
+
+}
@@ -2,8 +2,12 @@ package cororok.circular_buffer;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -106,6 +110,111 @@ public class BufferedCircularDiskStackTest {
 		}
 	}
 
+	@Test
+	public void testDrain() throws Exception {
+		try (BufferedCircularDiskStack test = openBufferedCircularDiskStack()) {
+			test.addFirst(input);
+			test.addFirst(input1);
+			test.addFirst(input2);
+			test.addFirst(input3); // input is in the disk
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(1, 6, 10, test.stack);
+
+			List<byte[]> result = test.drainBytes(12);
+			assertEquals(2, result.size());
+			assertArrayEquals(input3, result.get(0));
+			assertArrayEquals(input2, result.get(1));
+
+			result = test.drain(10); // memory and disk
+			assertEquals(2, result.size());
+			assertArrayEquals(input1, result.get(0));
+			assertArrayEquals(input, result.get(1));
+			assertSizeLengthEquals(0, 0, 0, test);
+		}
+	}
+
+	@Test
+	public void testManyElements() throws Exception {
+		final int count = 2500; // more than INITIAL_MEMORY_SIZE
+		CircularDiskQueueAndStack stack = new CircularDiskQueueAndStack(20_000, fileName);
+		try (BufferedCircularDiskStack test = new BufferedCircularDiskStack(stack, 2000)) {
+			for (int round = 0; round < 2; round++) { // reuses memory after moving to the disk
+				for (int i = 0; i < count; i++)
+					test.addFirst(new byte[] { (byte) i });
+				assertSizeLengthEquals(count, count, count * 5, test);
+				CircularDiskQueueAndStackTest.assertSizeLengthEquals(count - 2000, count - 2000, (count - 2000) * 5,
+						test.stack);
+
+				for (int i = count - 1; i >= 0; i--)
+					assertArrayEquals(new byte[] { (byte) i }, test.removeFirst());
+				assertSizeLengthEquals(0, 0, 0, test);
+			}
+		}
+	}
+
+	@Test
+	public void testAddFirstBatch() throws Exception {
+		final boolean[] broken = new boolean[1];
+		CircularDiskQueueAndStack stack = new CircularDiskQueueAndStack(100, fileName) {
+			@Override
+			public synchronized void addFirst(byte[] bs) throws IOException {
+				if (broken[0])
+					throw new IOException("broken disk");
+				super.addFirst(bs);
+			}
+
+			@Override
+			public synchronized void addFirstBatch(List<byte[]> list) throws IOException {
+				if (broken[0])
+					throw new IOException("broken disk");
+				super.addFirstBatch(list);
+			}
+		};
+		try (BufferedCircularDiskStack test = new BufferedCircularDiskStack(stack, 20)) {
+			test.addFirstBatch(Arrays.asList(input, input1, input2, input3)); // the oldest one goes to the disk
+			assertSizeLengthEquals(4, 24, 40, test);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(1, 6, 10, test.stack);
+
+			broken[0] = true;
+			try {
+				test.addFirstBatch(Arrays.asList(input4, input4));
+				fail("broken disk");
+			} catch (IOException e) {
+			}
+			assertSizeLengthEquals(4, 24, 40, test); // nothing was added
+			broken[0] = false;
+
+			test.addFirstBatch(Arrays.asList(input4));
+			assertArrayEquals(input4, test.removeFirst());
+			for (byte[] bs : new byte[][] { input3, input2, input1, input })
+				assertArrayEquals(bs, test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testSpiller() throws Exception {
+		final int count = 1000;
+		CircularDiskQueueAndStack stack = new CircularDiskQueueAndStack(20_000, fileName);
+		try (BufferedCircularDiskStack test = new BufferedCircularDiskStack(stack, 20, 40)) {
+			for (int i = 0; i < count; i++) {
+				test.addFirst(String.format("%06d", i).getBytes());
+				synchronized (test) {
+					assertTrue(test.length <= 40); // the hard limit
+				}
+			}
+			assertSizeLengthEquals(count, count * 6, count * 10, test);
+
+			for (int i = count - 1; i >= count / 2; i--)
+				assertArrayEquals(String.format("%06d", i).getBytes(), test.removeFirst());
+		}
+
+		// close moved the rest
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(20_000, fileName)) {
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(count / 2, count / 2 * 6, count / 2 * 10, test);
+			for (int i = count / 2 - 1; i >= 0; i--)
+				assertArrayEquals(String.format("%06d", i).getBytes(), test.removeFirst());
+		}
+	}
+
 	private BufferedCircularDiskStack openBufferedCircularDiskStack() throws IOException {
 		CircularDiskQueueAndStack stack = new CircularDiskQueueAndStack(50, fileName);
 		return new BufferedCircularDiskStack(stack, 20);
@@ -1,7 +1,10 @@
 package cororok.circular_buffer;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 public class ByteUtilTest {
@@ -16,4 +19,23 @@ public class ByteUtilTest {
 			assertEquals(i, result);
 		}
 	}
+
+	@Test
+	public void testNumAndByteOffset() {
+		byte[] bytes = new byte[6];
+		for (int i : new int[] { 0, 1, -1, 255, 256, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+			ByteUtil.numToByte(i, bytes, 2);
+			assertArrayEquals(ByteUtil.numToByte(i), Arrays.copyOfRange(bytes, 2, 6));
+			assertEquals(i, ByteUtil.byteToNum(bytes, 2));
+		}
+	}
+
+	@Test
+	public void testLongAndByteOffset() {
+		byte[] bytes = new byte[10];
+		for (long i : new long[] { 0, 1, -1, 255, 0xffffffffL, 1L << 32, Long.MAX_VALUE, Long.MIN_VALUE }) {
+			ByteUtil.longToByte(i, bytes, 2);
+			assertEquals(i, ByteUtil.byteToLong(bytes, 2));
+		}
+	}
 }
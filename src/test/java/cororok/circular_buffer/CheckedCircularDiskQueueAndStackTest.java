@@ -0,0 +1,148 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cororok.circular_buffer.storage.DefaultDiskWriter;
+import cororok.circular_buffer.storage.IndexWriter;
+
+public class CheckedCircularDiskQueueAndStackTest {
+
+	final String fileName = "checkedtest.txt";
+	final long headerSize = CheckedCircularDiskQueueAndStack.CHECKED_HEADER_SIZE;
+
+	final byte[] input = "123456".getBytes();
+	final byte[] input1 = "654321".getBytes();
+	final byte[] input2 = "abcdef".getBytes();
+
+	@Test
+	public void testReadWrite() throws Exception {
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName)) {
+			test.addLast(input);
+			test.addFirst(input1);
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(2, 12, 12 + 2 * headerSize, test);
+			test.addLastBatch(Arrays.asList(input2, input));
+			test.addFirstBatch(Arrays.asList(input2, input1));
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(6, 36, 36 + 6 * headerSize, test);
+
+			assertArrayEquals(input1, test.peekFirst());
+			assertArrayEquals(input1, test.removeFirst());
+
+			ByteBuffer dst = ByteBuffer.allocate(10);
+			assertEquals(6, test.removeFirst(dst));
+			assertArrayEquals(input2, Arrays.copyOf(dst.array(), 6));
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(10);
+			assertEquals(6, test.removeFirst(direct));
+
+			List<byte[]> result = test.drain(10); // at once
+			assertEquals(3, result.size());
+			assertArrayEquals(input, result.get(0));
+			assertArrayEquals(input2, result.get(1));
+			assertArrayEquals(input, result.get(2));
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(0, 0, 0, test);
+		}
+	}
+
+	@Test
+	public void testBrokenData() throws Exception {
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName)) {
+			test.addLast(input);
+			test.addLast(input1);
+		}
+		breakFile(headerSize + 1, 'x'); // data of input
+
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName)) {
+			try {
+				test.removeFirst();
+				fail("broken");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("broken frame"));
+			}
+			try {
+				test.drain(10);
+				fail("broken");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("broken frame"));
+			}
+			CircularDiskQueueAndStackTest.assertSizeLengthEquals(2, 12, 12 + 2 * headerSize, test); // not removed
+		}
+
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName, false)) {
+			assertArrayEquals("1x3456".getBytes(), test.removeFirst()); // not verified
+			assertArrayEquals(input1, test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testBrokenLength() throws Exception {
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName)) {
+			test.addLast(input);
+		}
+		breakFile(0, 0x7f); // a huge length
+
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName, false)) {
+			test.removeFirst();
+			fail("broken");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("wrong header"));
+		}
+	}
+
+	@Test
+	public void testAlgorithm() throws Exception {
+		long id;
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName)) {
+			test.addLast(input);
+			id = test.algorithmId();
+		}
+		long other = id == CheckedCircularDiskQueueAndStack.CRC32_ID ? CheckedCircularDiskQueueAndStack.CRC32C_ID
+				: CheckedCircularDiskQueueAndStack.CRC32_ID;
+		writeAlgorithm(id, other); // as if another java wrote it
+
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName)) {
+			fail("the other algorithm");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("wrong checksum"));
+		}
+
+		writeAlgorithm(other, id);
+		try (CheckedCircularDiskQueueAndStack test = new CheckedCircularDiskQueueAndStack(100, fileName)) {
+			assertArrayEquals(input, test.removeFirst()); // closed and unlocked by the failed one
+		}
+	}
+
+	private void writeAlgorithm(long expected, long id) throws Exception {
+		try (IndexWriter index = new IndexWriter(new DefaultDiskWriter(new File(fileName + ".index")))) {
+			assertEquals(expected, index.readSequence());
+			long[] startSizeEnd = index.readAll();
+			index.writeAll(startSizeEnd[0], startSizeEnd[1], startSizeEnd[2], id);
+		}
+	}
+
+	private void breakFile(long position, int b) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw")) {
+			raf.seek(position);
+			raf.write(b);
+		}
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+	}
+}
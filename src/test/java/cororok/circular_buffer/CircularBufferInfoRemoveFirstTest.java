@@ -34,6 +34,21 @@ public class CircularBufferInfoRemoveFirstTest {
 		assertBufferStorage(3, 5, 2, 1, cs);
 	}
 
+	@Test
+	public void testPeekFirst() {
+		CircularBufferInfo cs = createReverse53();
+		assertArrayEquals(new long[] { 5, 10, 0, 2 }, cs.peekFirst(7));
+		assertArrayEquals(null, cs.peekFirst(9));
+		assertBufferStorage(5, 3, 8, 1, cs); // not changed
+	}
+
+	@Test
+	public void testRemoveCount() {
+		CircularBufferInfo cs = new CircularBufferInfo(10, 5, 3, 4);
+		assertArrayEquals(new long[] { 5, 10, 0, 2 }, cs.removeFirst(7, 3));
+		assertBufferStorage(2, 3, 1, 1, cs);
+	}
+
 	@Test
 	public void testReverseRemove() {
 		CircularBufferInfo cs = createReverse53();
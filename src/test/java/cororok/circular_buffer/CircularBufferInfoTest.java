@@ -1,6 +1,8 @@
 package cororok.circular_buffer;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
 
@@ -123,4 +125,21 @@ public class CircularBufferInfoTest {
 		assertBufferStorage(3, 3, 10, 2, cs);
 	}
 
+
+	@Test
+	public void testReusableRange() {
+		CircularBufferInfo cs = new CircularBufferInfo(CAPACITY, 5, 3, 4);
+		Range range = new Range();
+		long[] r0 = cs.removeFirst(1, 1, range);
+		assertArrayEquals(new long[] { 5, 6 }, r0);
+
+		long[] r1 = cs.removeFirst(1, 1, range);
+		assertSame(r0, r1); // reused
+		assertArrayEquals(new long[] { 6, 7 }, r1);
+
+		assertArrayEquals(new long[] { 7, 10, 0, 1 }, cs.removeFirst(4, 1, range));
+		assertArrayEquals(new long[] { 1, 3 }, cs.removeFirst(2, 1, range));
+		assertArrayEquals(new long[] { 3, 10, 0, 1 }, cs.addLast(8, 1, range));
+		assertBufferStorage(3, 1, 8, 1, cs);
+	}
 }
@@ -1,9 +1,18 @@
 package cororok.circular_buffer;
 
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import cororok.circular_buffer.storage.DefaultDiskWriter;
+import cororok.circular_buffer.storage.IndexWriter;
+
 public class CircularDiskDequeFixedTest {
 
 	final String fileName = "dqtest.txt";
@@ -29,11 +38,56 @@ public class CircularDiskDequeFixedTest {
 		CircularDiskQueueAndStackTest.testIterator(new CircularDiskDequeFixed(100, fileName, "aa".length()));
 	}
 
+	@Test
+	public void testBatch() throws Exception {
+		CircularDiskQueueAndStackTest.testBatch(new CircularDiskDequeFixed(100, fileName, "aa".length()));
+	}
+
+	@Test
+	public void testDrain() throws Exception {
+		CircularDiskQueueAndStackTest.testDrain(new CircularDiskDequeFixed(100, fileName, "aa".length()), 1024);
+	}
+
+	@Test
+	public void testByteBuffer() throws Exception {
+		CircularDiskQueueAndStackTest.testByteBuffer(new CircularDiskDequeFixed(100, fileName, "aa".length()));
+	}
+
+	@Test
+	public void testTransfer() throws Exception {
+		CircularDiskQueueAndStackTest.testTransfer(new CircularDiskDequeFixed(100, fileName, "0123456789".length()));
+	}
+
 	@Test
 	public void testIteratorBackward() throws Exception {
 		CircularDiskDequeTest.testIteratorBackward(new CircularDiskDequeFixed(100, fileName, "aa".length()));
 	}
 
+	@Test
+	public void testBrokenIndex() throws Exception {
+		try (CircularDiskDequeFixed test = new CircularDiskDequeFixed(100, fileName, 2)) {
+			test.addLast("aa".getBytes());
+		}
+		try (IndexWriter index = new IndexWriter(new DefaultDiskWriter(new File(fileName + ".index")))) {
+			index.writeAll(0, 1, 1); // shorter than an element
+		}
+
+		try (CircularDiskDequeFixed test = new CircularDiskDequeFixed(100, fileName, 2)) {
+			try {
+				test.removeLast();
+				fail("broken");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("wrong length"));
+			}
+			try {
+				test.removeFirst();
+				fail("broken");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("wrong length"));
+			}
+		}
+	}
+
 	@Before
 	@After
 	public void clean() throws Exception {
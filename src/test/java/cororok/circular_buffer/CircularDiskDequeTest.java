@@ -4,7 +4,11 @@ import static cororok.circular_buffer.CircularDiskQueueAndStackTest.assertSizeLe
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 
 import org.junit.After;
@@ -28,6 +32,69 @@ public class CircularDiskDequeTest {
 		CircularDiskQueueAndStackTest.testIterator(new CircularDiskDeque(100, fileName));
 	}
 
+	@Test
+	public void testBatch() throws Exception {
+		CircularDiskQueueAndStackTest.testBatch(new CircularDiskDeque(100, fileName));
+	}
+
+	@Test
+	public void testBatchRemoveLast() throws Exception {
+		CircularDiskDeque test = new CircularDiskDeque(100, fileName);
+		try {
+			test.addLastBatch(Arrays.asList("aa".getBytes(), "bbb".getBytes()));
+			test.addFirstBatch(Arrays.asList("c".getBytes()));
+
+			// close and re-open
+			test.close();
+			test = new CircularDiskDeque(100, fileName);
+			assertSizeLengthEquals(3, 6, 6 + test.getHeaderSize() * 3, test);
+
+			assertArrayEquals("bbb".getBytes(), test.removeLast());
+			assertArrayEquals("aa".getBytes(), test.removeLast());
+			assertArrayEquals("c".getBytes(), test.removeLast());
+			assertSizeLengthEquals(0, 0, 0, test);
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testDrain() throws Exception {
+		CircularDiskQueueAndStackTest.testDrain(new CircularDiskDeque(100, fileName), 1024);
+	}
+
+	@Test
+	public void testBrokenLength() throws Exception {
+		try (CircularDiskDeque test = new CircularDiskDeque(100, fileName)) {
+			test.addLast("aa".getBytes());
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw")) {
+			raf.seek(4 + 2); // the header after data
+			raf.write(0x7f); // a huge length
+		}
+
+		try (CircularDiskDeque test = new CircularDiskDeque(100, fileName)) {
+			try {
+				test.removeLast();
+				fail("broken");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("wrong header"));
+			}
+			assertSizeLengthEquals(1, 2, 2 + test.getHeaderSize(), test); // not removed
+			assertArrayEquals("aa".getBytes(), test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testByteBuffer() throws Exception {
+		CircularDiskQueueAndStackTest.testByteBuffer(new CircularDiskDeque(100, fileName));
+	}
+
+	@Test
+	public void testTransfer() throws Exception {
+		CircularDiskQueueAndStackTest.testTransfer(new CircularDiskDeque(100, fileName));
+	}
+
 	@Test
 	public void testIteratorBackward() throws Exception {
 		testIteratorBackward(new CircularDiskDeque(100, fileName));
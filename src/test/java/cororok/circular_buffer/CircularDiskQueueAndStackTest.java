@@ -4,15 +4,29 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import cororok.circular_buffer.storage.DefaultDiskWriter;
+import cororok.circular_buffer.storage.IndexWriter;
+
 public class CircularDiskQueueAndStackTest {
 	final String fileName = "dqtest.txt";
 	final long headerSize = CircularDiskQueueAndStack.HEADER_SIZE;
@@ -54,6 +68,72 @@ public class CircularDiskQueueAndStackTest {
 		}
 	}
 
+	@Test
+	public void testLock() throws Exception {
+		File marker = new File(fileName + ".lock");
+		marker.createNewFile(); // left by a process which died
+		CircularDiskQueueAndStack test = openCircularDiskQueueAndStack();
+		try {
+			assertTrue(marker.length() > 0); // who has it
+
+			boolean shouldFail = false;
+			try {
+				openCircularDiskQueueAndStack();
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+
+			shouldFail = false;
+			try {
+				new ConcurrentCircularDiskQueue(100, fileName);
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+			assertTrue(marker.length() > 0); // failed one does not empty it
+		} finally {
+			test.close();
+		}
+		assertEquals(0, marker.length());
+
+		test = openCircularDiskQueueAndStack(); // released
+		test.close();
+	}
+
+	@Test
+	public void testLockProcess() throws Exception {
+		CircularDiskQueueAndStack test = openCircularDiskQueueAndStack();
+		try {
+			test.addLast("aa".getBytes());
+			test.iter().close(); // opens and closes the data file
+			try {
+				openCircularDiskQueueAndStack();
+				fail("locked");
+			} catch (IOException e) {
+			}
+
+			// still locked for another process
+			assertEquals(0, MpscCircularDiskQueueTest.startJava(Opener.class, fileName).waitFor());
+		} finally {
+			test.close();
+		}
+		assertEquals(1, MpscCircularDiskQueueTest.startJava(Opener.class, fileName).waitFor()); // released
+	}
+
+	/**
+	 * exits with 0 if it can not open the queue in another process, 1 if it can.
+	 */
+	public static class Opener {
+		public static void main(String[] args) throws Exception {
+			try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(100, args[0])) {
+				System.exit(1);
+			} catch (IOException e) {
+				System.exit(0);
+			}
+		}
+	}
+
 	private CircularDiskQueueAndStack openCircularDiskQueueAndStack() throws IOException {
 		return new CircularDiskQueueAndStack(100, fileName);
 	}
@@ -224,6 +304,293 @@ public class CircularDiskQueueAndStackTest {
 		}
 	}
 
+	@Test
+	public void testBatch() throws Exception {
+		testBatch(openCircularDiskQueueAndStack());
+	}
+
+	public static void testBatch(CircularDiskQueueAndStack test) throws Exception {
+		final byte[] input0 = "aa".getBytes();
+		final byte[] input1 = "bb".getBytes();
+		final byte[] input2 = "cc".getBytes();
+		final int headerSize = test.getHeaderSize();
+		try {
+			for (int i = 0; i < 10; i++) { // to be circled
+				test.addLastBatch(Arrays.asList(input0, input1));
+				test.addFirstBatch(Arrays.asList(input1, input2)); // cc, bb, aa, bb
+				assertSizeLengthEquals(4, 8, 8 + headerSize * 4, test);
+
+				assertArrayEquals(input2, test.removeFirst());
+				assertArrayEquals(input1, test.removeFirst());
+				assertArrayEquals(input0, test.removeFirst());
+				assertArrayEquals(input1, test.removeFirst());
+				assertSizeLengthEquals(0, 0, 0, test);
+			}
+
+			// all or nothing
+			test.addLast(input0);
+			boolean shouldFail = false;
+			try {
+				test.addLastBatch(Collections.nCopies(100, input1));
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+			assertSizeLengthEquals(1, 2, 2 + headerSize, test);
+			assertArrayEquals(input0, test.peekFirst());
+		} catch (Exception e) {
+			throw e;
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testDrain() throws Exception {
+		testDrain(openCircularDiskQueueAndStack(), 1024);
+		testDrain(openCircularDiskQueueAndStack(), 1); // smaller than any element
+	}
+
+	public static void testDrain(CircularDiskQueueAndStack test, int drainBufferSize) throws Exception {
+		final byte[] input0 = "aa".getBytes();
+		final byte[] input1 = "bb".getBytes();
+		final byte[] input2 = "cc".getBytes();
+		final int headerSize = test.getHeaderSize();
+		test.drainBufferSize = drainBufferSize;
+		try {
+			for (int i = 0; i < 10; i++) { // to be circled
+				test.addLastBatch(Arrays.asList(input0, input1, input2));
+
+				List<byte[]> result = test.drain(2);
+				assertEquals(2, result.size());
+				assertArrayEquals(input0, result.get(0));
+				assertArrayEquals(input1, result.get(1));
+				assertSizeLengthEquals(1, 2, 2 + headerSize, test);
+
+				List<byte[]> result1 = new ArrayList<>();
+				assertEquals(1, test.drainTo(result1, 10));
+				assertArrayEquals(input2, result1.get(0));
+				assertSizeLengthEquals(0, 0, 0, test);
+				assertEquals(0, test.drainTo(result1, 10));
+			}
+
+			test.addLastBatch(Arrays.asList(input0, input1, input2));
+			List<byte[]> result = test.drainBytes(5);
+			assertEquals(2, result.size());
+			assertArrayEquals(input1, result.get(1));
+
+			result = test.drainBytes(1); // at least one
+			assertEquals(1, result.size());
+			assertArrayEquals(input2, result.get(0));
+			assertSizeLengthEquals(0, 0, 0, test);
+			assertTrue(test.drainBytes(1).isEmpty());
+		} catch (Exception e) {
+			throw e;
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testByteBuffer() throws Exception {
+		testByteBuffer(openCircularDiskQueueAndStack());
+	}
+
+	public static void testByteBuffer(CircularDiskQueueAndStack test) throws Exception {
+		final byte[] input0 = "aa".getBytes();
+		final byte[] input1 = "bb".getBytes();
+		final int headerSize = test.getHeaderSize();
+		try {
+			ByteBuffer dst = ByteBuffer.allocateDirect(3);
+			assertEquals(0, test.peekFirst(dst));
+			assertEquals(null, test.peekFirstView());
+
+			test.addLast(input0);
+			test.addLast(input1);
+			assertEquals(2, test.peekFirst(dst));
+			assertEquals(1, dst.remaining());
+			assertSizeLengthEquals(2, 4, 4 + headerSize * 2, test);
+
+			assertEquals(-2, test.removeFirst(dst)); // not enough
+			assertSizeLengthEquals(2, 4, 4 + headerSize * 2, test);
+
+			dst.clear();
+			assertEquals(2, test.removeFirst(dst));
+			dst.flip();
+			byte[] result = new byte[dst.remaining()];
+			dst.get(result);
+			assertArrayEquals(input0, result);
+			assertSizeLengthEquals(1, 2, 2 + headerSize, test);
+
+			ByteBuffer view = test.peekFirstView();
+			assertTrue(view.isReadOnly());
+			result = new byte[view.remaining()];
+			view.get(result);
+			assertArrayEquals(input1, result);
+			assertSizeLengthEquals(1, 2, 2 + headerSize, test);
+
+			ByteBuffer heap = ByteBuffer.allocate(10);
+			heap.position(5);
+			assertEquals(2, test.removeFirst(heap));
+			assertEquals(7, heap.position());
+			assertArrayEquals(input1, Arrays.copyOfRange(heap.array(), 5, 7));
+			assertSizeLengthEquals(0, 0, 0, test);
+		} catch (Exception e) {
+			throw e;
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testTransfer() throws Exception {
+		testTransfer(openCircularDiskQueueAndStack());
+	}
+
+	public static void testTransfer(CircularDiskQueueAndStack test) throws Exception {
+		final byte[] input = "0123456789".getBytes();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			WritableByteChannel target = Channels.newChannel(out);
+			assertEquals(0, test.transferFirstTo(target, 10));
+
+			for (int i = 0; i < 20; i++) { // to be circled
+				test.addLast(input);
+				test.addLast(input);
+				test.addLast(input);
+				assertEquals(2, test.transferFirstTo(target, 2));
+				assertSizeLengthEquals(1, 10, 10 + test.getHeaderSize(), test);
+				assertEquals(1, test.transferFirstTo(target, 10));
+				assertSizeLengthEquals(0, 0, 0, test);
+			}
+
+			byte[] result = out.toByteArray();
+			assertEquals(20 * 3 * input.length, result.length);
+			for (int i = 0; i < result.length; i += input.length)
+				assertArrayEquals(input, Arrays.copyOfRange(result, i, i + input.length));
+		} catch (Exception e) {
+			throw e;
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testDurability() throws Exception {
+		for (Durability durability : new Durability[] { Durability.NONE, Durability.EVERY_OP, Durability.ON_CLOSE,
+				Durability.groupCommit(3, 10_000) }) {
+			clean();
+			try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(100, fileName, durability)) {
+				test.addLast("aa".getBytes());
+				test.addFirst("bb".getBytes());
+				test.addLast("cc".getBytes());
+				test.removeFirst();
+			}
+
+			// reopen
+			try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(100, fileName)) {
+				assertSizeLengthEquals(2, 4, 4 + headerSize * 2, test);
+				assertArrayEquals("aa".getBytes(), test.removeFirst());
+				assertArrayEquals("cc".getBytes(), test.removeFirst());
+			}
+		}
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(100, fileName,
+				Durability.groupCommit(3, 10_000))) {
+			test.addLast("aa".getBytes());
+			test.addLast("bb".getBytes());
+			assertArrayEquals(new long[] { 0, 0, 0 }, readIndex()); // not yet
+
+			test.addLast("cc".getBytes());
+			assertArrayEquals(new long[] { 0, 6, 18 }, readIndex());
+
+			test.removeFirst();
+			assertArrayEquals(new long[] { 0, 6, 18 }, readIndex()); // not yet
+
+			test.sync();
+			assertArrayEquals(new long[] { 6, 4, 18 }, readIndex());
+		}
+	}
+
+	@Test
+	public void testGroupCommitBeforeOverwrite() throws Exception {
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(12, fileName,
+				Durability.groupCommit(3, 10_000))) {
+			test.addLast("aa".getBytes());
+			test.addLast("bb".getBytes());
+			test.sync();
+			assertArrayEquals(new long[] { 0, 4, 12 }, readIndex());
+
+			test.removeFirst();
+			assertArrayEquals(new long[] { 0, 4, 12 }, readIndex()); // not yet
+
+			test.addLast("cc".getBytes()); // over "aa" which the index has
+			assertArrayEquals(new long[] { 6, 2, 12 }, readIndex());
+		}
+	}
+
+	@Test
+	public void testGroupCommitWhileIdle() throws Exception {
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(100, fileName,
+				Durability.groupCommit(3, 100))) {
+			test.sync();
+			test.addLast("aa".getBytes());
+			assertArrayEquals(new long[] { 0, 0, 0 }, readIndex()); // not yet
+
+			long until = System.currentTimeMillis() + 5000;
+			while (readIndex()[1] == 0 && System.currentTimeMillis() < until)
+				Thread.sleep(10);
+			assertArrayEquals(new long[] { 0, 2, 6 }, readIndex()); // without any add/remove
+		}
+	}
+
+	@Test
+	public void testOverlaps() {
+		assertTrue(CircularDiskQueueAndStack.overlaps(0, 6, 0, 12, 12));
+		assertTrue(CircularDiskQueueAndStack.overlaps(10, 4, 0, 2, 12)); // wraps around
+		assertFalse(CircularDiskQueueAndStack.overlaps(6, 6, 0, 6, 12));
+		assertFalse(CircularDiskQueueAndStack.overlaps(2, 4, 6, 8, 12));
+		assertFalse(CircularDiskQueueAndStack.overlaps(0, 6, 0, 0, 12));
+	}
+
+	@Test
+	public void testAddLastAsync() throws Exception {
+		final int threads = 8;
+		final int count = 100;
+		final byte[] input = "abc".getBytes();
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(10_000, fileName,
+				Durability.groupCommit(1000, 10_000))) {
+			List<CompletableFuture<Void>> futures = Collections.synchronizedList(new ArrayList<>());
+			Thread[] producers = new Thread[threads];
+			for (int i = 0; i < threads; i++) {
+				producers[i] = new Thread(() -> {
+					for (int j = 0; j < count; j++)
+						futures.add(test.addLastAsync(input));
+				});
+				producers[i].start();
+			}
+			for (Thread producer : producers)
+				producer.join();
+
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+			// all of them are in the index even if group commit was not reached
+			assertArrayEquals(new long[] { 0, threads * count * 2, threads * count * (input.length + headerSize) },
+					readIndex());
+
+			CompletableFuture<Void> tooBig = test.addLastAsync(new byte[10_000]);
+			assertTrue(tooBig.isCompletedExceptionally());
+		}
+	}
+
+	private long[] readIndex() throws Exception {
+		try (IndexWriter iw = new IndexWriter(new DefaultDiskWriter(new File(fileName + ".index")))) {
+			return iw.readAll();
+		}
+	}
+
 	@Before
 	@After
 	public void clean() throws Exception {
@@ -0,0 +1,206 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentCircularDiskQueueTest {
+	final String fileName = "dqtest.txt";
+	final long headerSize = ConcurrentCircularDiskQueue.HEADER_SIZE;
+
+	@Test
+	public void testAddRemove() throws Exception {
+		ConcurrentCircularDiskQueue test = new ConcurrentCircularDiskQueue(30, fileName);
+		try {
+			assertNull(test.peekFirst());
+			for (int i = 0; i < 20; i++) { // to be circled
+				byte[] in = ("abc" + i).getBytes();
+				test.addLast(in);
+				test.addLast(in);
+				assertSizeLengthEquals(2, in.length * 2, (in.length + headerSize) * 2, test);
+
+				assertArrayEquals(in, test.peekFirst());
+				assertArrayEquals(in, test.removeFirst());
+
+				ByteBuffer small = ByteBuffer.allocate(1);
+				assertEquals(-in.length, test.removeFirst(small));
+				ByteBuffer dst = ByteBuffer.allocate(10);
+				assertEquals(in.length, test.removeFirst(dst));
+				assertArrayEquals(in, Arrays.copyOf(dst.array(), dst.position()));
+				assertSizeLengthEquals(0, 0, 0, test);
+			}
+
+			boolean shouldFail = false;
+			try {
+				test.removeFirst();
+			} catch (NoSuchElementException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+
+			shouldFail = false;
+			try {
+				test.addLast(new byte[30]);
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testBatchDrain() throws Exception {
+		final byte[] input0 = "aa".getBytes();
+		final byte[] input1 = "bb".getBytes();
+		final byte[] input2 = "cc".getBytes();
+		ConcurrentCircularDiskQueue test = new ConcurrentCircularDiskQueue(30, fileName);
+		try {
+			for (int i = 0; i < 10; i++) { // to be circled
+				test.addLastBatch(Arrays.asList(input0, input1, input2));
+				assertSizeLengthEquals(3, 6, 6 + headerSize * 3, test);
+
+				List<byte[]> result = test.drainBytes(3); // at least one
+				assertEquals(1, result.size());
+				assertArrayEquals(input0, result.get(0));
+
+				result = test.drain(10);
+				assertEquals(2, result.size());
+				assertArrayEquals(input1, result.get(0));
+				assertArrayEquals(input2, result.get(1));
+				assertSizeLengthEquals(0, 0, 0, test);
+			}
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		final byte[] input0 = "aa".getBytes();
+		final byte[] input1 = "bbb".getBytes();
+		ConcurrentCircularDiskQueue test = new ConcurrentCircularDiskQueue(20, fileName);
+		for (int i = 0; i < 3; i++) { // to be circled
+			test.addLast(input0);
+			test.removeFirst();
+		}
+		test.addLast(input0);
+		test.addLast(input1);
+		test.close();
+
+		// the same format as CircularDiskQueueAndStack
+		CircularDiskQueueAndStack other = new CircularDiskQueueAndStack(20, fileName);
+		CircularDiskQueueAndStackTest.assertSizeLengthEquals(2, 5, 5 + headerSize * 2, other);
+		assertArrayEquals(input0, other.removeFirst());
+		other.addLast(input0);
+		other.close();
+
+		test = new ConcurrentCircularDiskQueue(20, fileName);
+		try {
+			assertSizeLengthEquals(2, 5, 5 + headerSize * 2, test);
+			assertArrayEquals(input1, test.removeFirst());
+			assertArrayEquals(input0, test.removeFirst());
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testProducersConsumers() throws Exception {
+		final int producers = 4;
+		final int consumers = 4;
+		final int perProducer = 1000;
+		final ConcurrentCircularDiskQueue test = new ConcurrentCircularDiskQueue(1000, fileName);
+		final ConcurrentHashMap<String, Boolean> received = new ConcurrentHashMap<>();
+		final AtomicInteger left = new AtomicInteger(producers * perProducer);
+		final List<Throwable> errors = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		try {
+			for (int p = 0; p < producers; p++) {
+				final int id = p;
+				threads.add(new Thread() {
+					public void run() {
+						try {
+							for (int i = 0; i < perProducer; i++) {
+								byte[] in = (id + "-" + i).getBytes();
+								while (true) {
+									try {
+										test.addLast(in);
+										break;
+									} catch (IOException e) { // full
+										Thread.yield();
+									}
+								}
+							}
+						} catch (Throwable e) {
+							synchronized (errors) {
+								errors.add(e);
+							}
+						}
+					}
+				});
+			}
+			for (int c = 0; c < consumers; c++) {
+				threads.add(new Thread() {
+					public void run() {
+						try {
+							while (left.get() > 0) {
+								try {
+									String s = new String(test.removeFirst());
+									if (received.put(s, Boolean.TRUE) != null)
+										throw new RuntimeException("duplicated " + s);
+									left.decrementAndGet();
+								} catch (NoSuchElementException e) { // empty
+									Thread.yield();
+								}
+							}
+						} catch (Throwable e) {
+							synchronized (errors) {
+								errors.add(e);
+							}
+							left.set(0);
+						}
+					}
+				});
+			}
+
+			for (Thread t : threads)
+				t.start();
+			for (Thread t : threads)
+				t.join();
+
+			assertTrue(errors.toString(), errors.isEmpty());
+			assertEquals(producers * perProducer, received.size());
+			assertSizeLengthEquals(0, 0, 0, test);
+		} finally {
+			test.close();
+		}
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+	}
+
+	static void assertSizeLengthEquals(long size, long length, long lengthOfStorage, Queue q) {
+		assertEquals(size, q.size());
+		assertEquals(length, q.length());
+		assertEquals(lengthOfStorage, q.lengthOfStorage());
+	}
+}
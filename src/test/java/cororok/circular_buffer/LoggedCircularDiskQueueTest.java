@@ -0,0 +1,225 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cororok.circular_buffer.storage.DefaultDiskWriter;
+import cororok.circular_buffer.storage.DefaultDiskWriterFactory;
+import cororok.circular_buffer.storage.IndexWriter;
+
+public class LoggedCircularDiskQueueTest {
+
+	final String fileName = "logtest.txt";
+	final String crashedFileName = "logtest_crashed.txt";
+
+	final byte[] input = "123456".getBytes();
+	final byte[] input1 = "654321".getBytes();
+	final byte[] input2 = "abcdef".getBytes();
+
+	@Test
+	public void testReadWrite() throws Exception {
+		try (LoggedCircularDiskQueue test = open(fileName)) {
+			test.addLast(input);
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(1, 6, 22, test);
+			test.addLastBatch(Arrays.asList(input1, input2));
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(3, 18, 66, test);
+
+			assertArrayEquals(input, test.peekFirst());
+			assertArrayEquals(input, test.removeFirst());
+			List<byte[]> result = test.drain(10);
+			assertEquals(2, result.size());
+			assertArrayEquals(input1, result.get(0));
+			assertArrayEquals(input2, result.get(1));
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+		}
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		try (LoggedCircularDiskQueue test = open(fileName)) {
+			test.addLast(input);
+			test.addLast(input1);
+			test.removeFirst();
+		}
+
+		try (LoggedCircularDiskQueue test = open(fileName)) {
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(1, 6, 22, test);
+			test.addLast(input2);
+			assertArrayEquals(input1, test.removeFirst());
+			assertArrayEquals(input2, test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testRollForward() throws Exception {
+		final int count = 30; // wraps around several times
+		try (LoggedCircularDiskQueue test = open(fileName)) {
+			for (int i = 0; i < count; i++) {
+				test.addLast(String.format("%06d", i).getBytes());
+				if (i >= 3)
+					assertArrayEquals(String.format("%06d", i - 3).getBytes(), test.removeFirst());
+			}
+			// the last add and remove are after the checkpoint before the overwrite
+			assertEquals(2, test.log.notSynced);
+			crash(test, true);
+		}
+
+		try (LoggedCircularDiskQueue test = open(crashedFileName)) {
+			// the removed one comes back and the last add comes from the data file
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(4, 24, 88, test);
+			for (int i = count - 4; i < count; i++)
+				assertArrayEquals(String.format("%06d", i).getBytes(), test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testRedelivery() throws Exception {
+		try (LoggedCircularDiskQueue test = open(fileName)) {
+			test.addLast(input);
+			test.addLast(input1);
+			test.checkpoint();
+			test.removeFirst(); // not checkpointed
+			test.addLast(input2);
+			crash(test, true);
+		}
+
+		try (LoggedCircularDiskQueue test = open(crashedFileName)) {
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(3, 18, 66, test);
+			assertArrayEquals(input, test.removeFirst()); // again
+			assertArrayEquals(input1, test.removeFirst());
+			assertArrayEquals(input2, test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testTornFrame() throws Exception {
+		try (LoggedCircularDiskQueue test = open(fileName)) {
+			test.addLast(input);
+			test.checkpoint();
+			test.addLast(input1);
+			test.addLast(input2);
+			crash(test, true);
+		}
+
+		// as if it died while writing the data of input1
+		try (RandomAccessFile raf = new RandomAccessFile(crashedFileName, "rw")) {
+			raf.seek(22 + LoggedCircularDiskQueue.LOG_HEADER_SIZE + 1);
+			raf.write('x');
+		}
+
+		try (LoggedCircularDiskQueue test = open(crashedFileName)) {
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(1, 6, 22, test); // stops at input1
+			assertArrayEquals(input, test.removeFirst());
+
+			test.addLast(input2); // overwrites the torn one
+			assertArrayEquals(input2, test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testRebuild() throws Exception {
+		final long capacity = 10_000;
+		ArrayDeque<byte[]> added = new ArrayDeque<>();
+		try (LoggedCircularDiskQueue test = new LoggedCircularDiskQueue(capacity, fileName,
+				new DefaultDiskWriterFactory(), 1000, 60_000)) {
+			for (int i = 0; i < 3000; i++) { // wraps around several times
+				byte[] bs = new byte[1 + i % 37];
+				Arrays.fill(bs, (byte) i);
+				while (test.getAvailableSpace() < bs.length)
+					test.removeFirst();
+				test.addLast(bs);
+				added.addLast(bs);
+			}
+			crash(test, false);
+		}
+
+		// all the frames which are not overwritten
+		long space = 0;
+		ArrayDeque<byte[]> expected = new ArrayDeque<>();
+		for (Iterator<byte[]> it = added.descendingIterator(); it.hasNext();) {
+			byte[] bs = it.next();
+			space += LoggedCircularDiskQueue.LOG_HEADER_SIZE + bs.length;
+			if (space > capacity)
+				break;
+			expected.addFirst(bs);
+		}
+
+		for (int threads : new int[] { 1, 7 }) {
+			try (LoggedCircularDiskQueue test = new LoggedCircularDiskQueue(capacity, crashedFileName,
+					new DefaultDiskWriterFactory(), 1000, 60_000, threads)) {
+				assertEquals(expected.size(), test.size());
+				Iterator<byte[]> it = expected.iterator();
+				try (AutoCloseableIter iter = test.iter()) {
+					while (iter.hasNext())
+						assertArrayEquals(it.next(), iter.next());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRebuildStaleIndex() throws Exception {
+		try (LoggedCircularDiskQueue test = open(fileName)) {
+			test.addLast(input);
+			test.addLast(input1);
+			test.removeFirst();
+			test.checkpoint(); // the start point is input1
+			test.addLast(input2);
+			crash(test, true);
+		}
+
+		LoggedCircularDiskQueue.rebuildIndex(100, crashedFileName, new DefaultDiskWriterFactory(), 3);
+		try (IndexWriter index = new IndexWriter(new DefaultDiskWriter(new File(crashedFileName + ".index")))) {
+			assertArrayEquals(new long[] { 22, 2 * 2, 66 }, index.readAll());
+			assertEquals(66, index.readSequence());
+		}
+
+		try (LoggedCircularDiskQueue test = open(crashedFileName)) {
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(2, 12, 44, test);
+			assertArrayEquals(input1, test.removeFirst());
+			assertArrayEquals(input2, test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testNotStack() {
+		assertFalse(Stack.class.isAssignableFrom(LoggedCircularDiskQueue.class));
+	}
+
+	private LoggedCircularDiskQueue open(String fileName) throws IOException {
+		return new LoggedCircularDiskQueue(100, fileName, new DefaultDiskWriterFactory(), 1000, 60_000);
+	}
+
+	/**
+	 * copies the files of the given one as they are now, without the last checkpoint of close.
+	 */
+	private void crash(LoggedCircularDiskQueue test, boolean withIndex) throws IOException {
+		Files.copy(new File(fileName).toPath(), new File(crashedFileName).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		if (withIndex)
+			Files.copy(new File(fileName + ".index").toPath(), new File(crashedFileName + ".index").toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+		CircularDiskQueueAndStackTest.deleteFile(crashedFileName);
+	}
+}
@@ -0,0 +1,395 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MpscCircularDiskQueueTest {
+	final String fileName = "dqtest.txt";
+	final long headerSize = MpscCircularDiskQueue.HEADER_SIZE;
+
+	@Test
+	public void testAddRemove() throws Exception {
+		MpscCircularDiskQueue test = new MpscCircularDiskQueue(64, fileName);
+		try {
+			assertNull(test.peekFirst());
+			for (int i = 0; i < 40; i++) { // to be circled
+				byte[] in = ("abc" + i).getBytes(); // 16 or 17 with headers, 16 or 20 with padding
+				test.addLast(in);
+				test.addLast(in);
+				ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(2, in.length * 2, test.frameSpace(in.length) * 2,
+						test);
+
+				assertArrayEquals(in, test.peekFirst());
+				assertArrayEquals(in, test.removeFirst());
+				assertArrayEquals(in, test.removeFirst());
+				ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+			}
+
+			test.addLastBatch(Arrays.asList("a".getBytes(), "bb".getBytes(), "ccc".getBytes()));
+			List<byte[]> result = test.drainBytes(2);
+			assertEquals(1, result.size());
+			result = test.drain(10);
+			assertEquals(2, result.size());
+			assertArrayEquals("ccc".getBytes(), result.get(1));
+
+			boolean shouldFail = false;
+			try {
+				test.removeFirst();
+			} catch (NoSuchElementException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+
+			shouldFail = false;
+			try {
+				test.addLast(new byte[53]);
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testNotCommitted() throws Exception {
+		MpscCircularDiskQueue test = new MpscCircularDiskQueue(64, fileName);
+		long pos;
+		try {
+			test.addLast("aa".getBytes());
+			pos = test.lengthOfStorage();
+			test.addLast("bb".getBytes());
+			test.addLast("cc".getBytes());
+
+			// as if the producer of bb is still copying
+			test.memory.putIntOrdered(MpscCircularDiskQueue.DATA_OFFSET + pos, -2);
+			assertArrayEquals("aa".getBytes(), test.removeFirst());
+			assertNull(test.peekFirst()); // waits for bb
+		} finally {
+			test.close();
+		}
+
+		// the producer died, bb is skipped
+		test = new MpscCircularDiskQueue(64, fileName);
+		try {
+			assertEquals(1, test.size());
+			assertArrayEquals("cc".getBytes(), test.removeFirst());
+			assertEquals(0, test.lengthOfStorage());
+
+			// died before writing header
+			test.addLast("aa".getBytes());
+			pos = test.lengthOfStorage();
+			test.addLast("bb".getBytes());
+			test.memory.putIntOrdered(MpscCircularDiskQueue.DATA_OFFSET + (test.head + pos) % 64, 0);
+		} finally {
+			test.close();
+		}
+
+		test = new MpscCircularDiskQueue(64, fileName);
+		try {
+			assertEquals(1, test.size());
+			assertEquals(pos, test.lengthOfStorage()); // cut
+			assertArrayEquals("aa".getBytes(), test.removeFirst());
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testGap() throws Exception {
+		MpscCircularDiskQueue test = new MpscCircularDiskQueue(64, fileName);
+		try {
+			test.addLast("aa".getBytes());
+			long pos = test.lengthOfStorage();
+			test.addLast("bbbbbbbb".getBytes()); // 20 with headers
+			test.addLast("cc".getBytes());
+			// the producer of bb died before writing header but cc was committed
+			test.memory.putIntOrdered(MpscCircularDiskQueue.DATA_OFFSET + pos, 0);
+		} finally {
+			test.close();
+		}
+
+		test = new MpscCircularDiskQueue(64, fileName);
+		try {
+			assertEquals(2, test.size());
+			assertArrayEquals("aa".getBytes(), test.removeFirst());
+			assertArrayEquals("cc".getBytes(), test.removeFirst()); // over the gap
+			assertEquals(0, test.lengthOfStorage());
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testReleaseSkipped() throws Exception {
+		MpscCircularDiskQueue test = new MpscCircularDiskQueue(64, fileName);
+		try {
+			test.addLast("aa".getBytes());
+			long pos = test.lengthOfStorage();
+			test.addLast("bb".getBytes());
+			// as if the producer of bb failed
+			test.memory.putIntOrdered(MpscCircularDiskQueue.DATA_OFFSET + pos,
+					MpscCircularDiskQueue.PADDING | 2);
+
+			assertArrayEquals("aa".getBytes(), test.removeFirst());
+			assertEquals(test.frameSpace(2), test.lengthOfStorage());
+			assertNull(test.peekFirst()); // nothing after the padding
+			assertEquals(0, test.lengthOfStorage());
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testProducersConsumer() throws Exception {
+		final int producers = 8;
+		final int perProducer = 5000;
+		final MpscCircularDiskQueue test = new MpscCircularDiskQueue(4096, fileName);
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+		try {
+			for (int p = 0; p < producers; p++) {
+				final int id = p;
+				threads.add(new Thread() {
+					public void run() {
+						try {
+							for (int i = 0; i < perProducer; i++) {
+								byte[] in = (id + "-" + i).getBytes();
+								while (true) {
+									try {
+										test.addLast(in);
+										break;
+									} catch (IOException e) { // full
+										Thread.yield();
+									}
+								}
+							}
+						} catch (Throwable e) {
+							error.set(e);
+						}
+					}
+				});
+			}
+			for (Thread t : threads)
+				t.start();
+
+			int[] next = new int[producers];
+			for (int received = 0; received < producers * perProducer && error.get() == null;) {
+				byte[] out;
+				try {
+					out = test.removeFirst();
+				} catch (NoSuchElementException e) { // empty or not committed
+					Thread.yield();
+					continue;
+				}
+				String[] idAndNumber = new String(out).split("-");
+				int id = Integer.parseInt(idAndNumber[0]);
+				assertEquals(next[id]++, Integer.parseInt(idAndNumber[1])); // in order of each producer
+				received++;
+			}
+			for (Thread t : threads)
+				t.join();
+
+			assertNull(error.get());
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testShared() throws Exception {
+		MpscCircularDiskQueue consumer = new MpscCircularDiskQueue(64, fileName, true, true);
+		MpscCircularDiskQueue producer = new MpscCircularDiskQueue(64, fileName, true, false);
+		try {
+			boolean shouldFail = false;
+			try {
+				new MpscCircularDiskQueue(64, fileName, true, true);
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail); // only one consumer
+
+			shouldFail = false;
+			try {
+				producer.peekFirst();
+			} catch (IllegalStateException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+
+			producer.addLast("aa".getBytes());
+			consumer.addLast("bb".getBytes());
+			assertEquals(2, producer.size());
+			assertArrayEquals("aa".getBytes(), consumer.removeFirst());
+			assertEquals(1, producer.size());
+
+			// as if the producer died while copying, the others do not recover it
+			producer.addLast("cc".getBytes());
+			long pos = consumer.lengthOfStorage();
+			producer.addLast("dd".getBytes());
+			producer.memory.putIntOrdered(MpscCircularDiskQueue.DATA_OFFSET + consumer.head + pos, -2);
+			producer.close();
+
+			producer = new MpscCircularDiskQueue(64, fileName, true, false);
+			assertArrayEquals("bb".getBytes(), consumer.removeFirst());
+			assertArrayEquals("cc".getBytes(), consumer.removeFirst());
+			assertNull(consumer.peekFirst());
+		} finally {
+			producer.close();
+			consumer.close();
+		}
+
+		// the first one recovers it
+		consumer = new MpscCircularDiskQueue(64, fileName, true, true);
+		try {
+			assertEquals(0, consumer.size());
+			assertNull(consumer.peekFirst());
+			assertEquals(0, consumer.drain(10).size()); // releases the skipped one
+			assertEquals(0, consumer.lengthOfStorage());
+		} finally {
+			consumer.close();
+		}
+	}
+
+	@Test
+	public void testSharedProcess() throws Exception {
+		final int total = 1000;
+		MpscCircularDiskQueue consumer = new MpscCircularDiskQueue(1024, fileName, true, true);
+		try {
+			Process process = startJava(Producer.class, fileName, String.valueOf(total));
+
+			for (int i = 0; i < total;) {
+				byte[] out;
+				try {
+					out = consumer.removeFirst();
+				} catch (NoSuchElementException e) { // empty or not committed
+					Thread.yield();
+					continue;
+				}
+				assertEquals(String.valueOf(i), new String(out)); // in order
+				i++;
+			}
+			assertEquals(0, process.waitFor());
+		} finally {
+			consumer.close();
+		}
+	}
+
+	@Test
+	public void testSharedLocksAfterClose() throws Exception {
+		MpscCircularDiskQueue consumer = new MpscCircularDiskQueue(64, fileName, true, true);
+		try {
+			MpscCircularDiskQueue producer = new MpscCircularDiskQueue(64, fileName, true, false);
+			producer.close(); // does not release the locks of the consumer
+
+			assertEquals(0, startJava(Consumer.class, fileName).waitFor());
+		} finally {
+			consumer.close();
+		}
+	}
+
+	@Test
+	public void testSharedAndNotShared() throws Exception {
+		try (MpscCircularDiskQueue owner = new MpscCircularDiskQueue(64, fileName)) {
+			try (MpscCircularDiskQueue producer = new MpscCircularDiskQueue(64, fileName, true, false)) {
+				fail("it is open only for this process");
+			} catch (IOException e) {
+			}
+			assertEquals(0, startJava(Opener.class, fileName, "true").waitFor());
+		}
+
+		try (MpscCircularDiskQueue producer = new MpscCircularDiskQueue(64, fileName, true, false)) {
+			try (MpscCircularDiskQueue owner = new MpscCircularDiskQueue(64, fileName)) {
+				fail("it is shared");
+			} catch (IOException e) {
+			}
+			assertEquals(0, startJava(Opener.class, fileName, "false").waitFor());
+		}
+
+		try (MpscCircularDiskQueue owner = new MpscCircularDiskQueue(64, fileName)) {
+			// both of them released their locks
+		}
+	}
+
+	static Process startJava(Class<?> main, String... args) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(main.getName());
+		command.addAll(Arrays.asList(args));
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+	/**
+	 * exits with 0 if it can not be the consumer in another process.
+	 */
+	public static class Consumer {
+		public static void main(String[] args) throws Exception {
+			try (MpscCircularDiskQueue consumer = new MpscCircularDiskQueue(64, args[0], true, true)) {
+				System.exit(1);
+			} catch (IOException e) {
+				System.exit(0);
+			}
+		}
+	}
+
+	/**
+	 * exits with 0 if it can not open it in another process, shared or not.
+	 */
+	public static class Opener {
+		public static void main(String[] args) throws Exception {
+			boolean shared = Boolean.parseBoolean(args[1]);
+			try (MpscCircularDiskQueue queue = new MpscCircularDiskQueue(64, args[0], shared, shared == false)) {
+				System.exit(1);
+			} catch (IOException e) {
+				System.exit(0);
+			}
+		}
+	}
+
+	/**
+	 * adds numbers from 0 in another process.
+	 */
+	public static class Producer {
+		public static void main(String[] args) throws Exception {
+			try (MpscCircularDiskQueue producer = new MpscCircularDiskQueue(1024, args[0], true, false)) {
+				int total = Integer.parseInt(args[1]);
+				for (int i = 0; i < total; i++) {
+					byte[] in = String.valueOf(i).getBytes();
+					while (true) {
+						try {
+							producer.addLast(in);
+							break;
+						} catch (IOException e) { // full
+							Thread.yield();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+	}
+}
@@ -0,0 +1,112 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedCircularDiskQueueTest {
+	final String fileName = "dqtest.txt";
+	final int shards = 3;
+	final long headerSize = CircularDiskQueueAndStack.HEADER_SIZE;
+
+	@Test
+	public void testRoundRobin() throws Exception {
+		ShardedCircularDiskQueue test = new ShardedCircularDiskQueue(shards, 20, fileName);
+		try {
+			for (int i = 0; i < 6; i++)
+				test.addLast(("a" + i).getBytes());
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(6, 12, 12 + headerSize * 6, test);
+			for (int i = 0; i < shards; i++)
+				assertEquals(2, test.getShard(i).size());
+
+			Set<String> result = new HashSet<>();
+			for (int i = 0; i < 6; i++)
+				result.add(new String(test.removeFirst()));
+			assertEquals(6, result.size());
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+
+			boolean shouldFail = false;
+			try {
+				test.removeFirst();
+			} catch (NoSuchElementException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+
+			// a batch skips full shards too
+			test.getShard(0).addLast(new byte[16]);
+			test.getShard(1).addLast(new byte[16]);
+			test.addLastBatch(Arrays.asList("aa".getBytes(), "bb".getBytes()));
+			assertEquals(2, test.getShard(2).size());
+			assertEquals(4, test.drain(10).size());
+
+			// skips full shards
+			for (int i = 0; i < shards; i++)
+				test.addLast(new byte[16]);
+			shouldFail = false;
+			try {
+				test.addLast(new byte[1]);
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+			assertEquals(0, test.getAvailableSpace());
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testKey() throws Exception {
+		ShardedCircularDiskQueue test = new ShardedCircularDiskQueue(shards, 100, fileName);
+		try {
+			String key = "key";
+			for (int i = 0; i < 5; i++)
+				test.addLast(key, ("a" + i).getBytes());
+
+			Queue shard = test.getShard(test.shardOf(key));
+			assertEquals(5, shard.size());
+			for (int i = 0; i < 5; i++) // in order
+				assertArrayEquals(("a" + i).getBytes(), shard.removeFirst());
+		} finally {
+			test.close();
+		}
+
+		// reopen
+		test = new ShardedCircularDiskQueue(shards, 100, fileName);
+		try {
+			test.addLastBatch(Arrays.asList("aa".getBytes(), "bb".getBytes()));
+			test.addLast("cc".getBytes());
+			test.close();
+
+			test = new ShardedCircularDiskQueue(shards, 100, fileName);
+			assertEquals(3, test.size());
+
+			List<byte[]> result = test.drainBytes(3); // at least one and not over 3 after that
+			assertEquals(1, result.size());
+			result = test.drain(10);
+			assertEquals(2, result.size());
+			assertEquals(0, test.size());
+		} finally {
+			test.close();
+		}
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		for (int i = 0; i < shards; i++)
+			CircularDiskQueueAndStackTest.deleteFile(fileName + "." + i);
+	}
+}
@@ -0,0 +1,160 @@
+package cororok.circular_buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpscCircularDiskQueueTest {
+	final String fileName = "dqtest.txt";
+	final long headerSize = SpscCircularDiskQueue.HEADER_SIZE;
+
+	@Test
+	public void testAddRemove() throws Exception {
+		SpscCircularDiskQueue test = new SpscCircularDiskQueue(30, fileName);
+		try {
+			assertNull(test.peekFirst());
+			for (int i = 0; i < 20; i++) { // to be circled
+				byte[] in = ("abc" + i).getBytes();
+				test.addLast(in);
+				test.addLast(in);
+				ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(2, in.length * 2, (in.length + headerSize) * 2,
+						test);
+
+				assertArrayEquals(in, test.peekFirst());
+				assertArrayEquals(in, test.removeFirst());
+
+				assertEquals(-in.length, test.removeFirst(ByteBuffer.allocate(1)));
+				ByteBuffer dst = ByteBuffer.allocateDirect(10);
+				assertEquals(in.length, test.removeFirst(dst));
+				byte[] result = new byte[in.length];
+				dst.flip();
+				dst.get(result);
+				assertArrayEquals(in, result);
+				ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+			}
+
+			boolean shouldFail = false;
+			try {
+				test.removeFirst();
+			} catch (NoSuchElementException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+
+			shouldFail = false;
+			try {
+				test.addLast(new byte[27]);
+			} catch (IOException e) {
+				shouldFail = true;
+			}
+			assertTrue(shouldFail);
+		} finally {
+			test.close();
+		}
+	}
+
+	@Test
+	public void testBatchDrainReopen() throws Exception {
+		final byte[] input0 = "aa".getBytes();
+		final byte[] input1 = "bb".getBytes();
+		final byte[] input2 = "cc".getBytes();
+		SpscCircularDiskQueue test = new SpscCircularDiskQueue(30, fileName);
+		try {
+			for (int i = 0; i < 10; i++) { // to be circled
+				test.addLastBatch(Arrays.asList(input0, input1, input2));
+				List<byte[]> result = test.drainBytes(3); // at least one
+				assertEquals(1, result.size());
+				assertArrayEquals(input0, result.get(0));
+
+				result = test.drain(10);
+				assertEquals(2, result.size());
+				assertArrayEquals(input2, result.get(1));
+			}
+			test.addLastBatch(Arrays.asList(input0, input1));
+		} finally {
+			test.close();
+		}
+
+		test = new SpscCircularDiskQueue(30, fileName);
+		try {
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(2, 4, 4 + headerSize * 2, test);
+			assertArrayEquals(input0, test.removeFirst());
+			assertArrayEquals(input1, test.removeFirst());
+		} finally {
+			test.close();
+		}
+
+		boolean shouldFail = false;
+		try {
+			new SpscCircularDiskQueue(40, fileName);
+		} catch (IOException e) {
+			shouldFail = true;
+		}
+		assertTrue(shouldFail);
+	}
+
+	@Test
+	public void testProducerConsumer() throws Exception {
+		final int total = 100000;
+		final SpscCircularDiskQueue test = new SpscCircularDiskQueue(1000, fileName);
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		try {
+			Thread producer = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < total; i++) {
+							byte[] in = String.valueOf(i).getBytes();
+							while (true) {
+								try {
+									test.addLast(in);
+									break;
+								} catch (IOException e) { // full
+									Thread.yield();
+								}
+							}
+						}
+					} catch (Throwable e) {
+						error.set(e);
+					}
+				}
+			};
+			producer.start();
+
+			for (int i = 0; i < total && error.get() == null;) {
+				byte[] out;
+				try {
+					out = test.removeFirst();
+				} catch (NoSuchElementException e) { // empty
+					Thread.yield();
+					continue;
+				}
+				assertEquals(String.valueOf(i), new String(out)); // in order
+				i++;
+			}
+			producer.join();
+
+			assertNull(error.get());
+			ConcurrentCircularDiskQueueTest.assertSizeLengthEquals(0, 0, 0, test);
+		} finally {
+			test.close();
+		}
+	}
+
+	@Before
+	@After
+	public void clean() throws Exception {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+	}
+}
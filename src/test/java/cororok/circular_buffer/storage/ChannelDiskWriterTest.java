@@ -0,0 +1,207 @@
+package cororok.circular_buffer.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cororok.circular_buffer.CircularDiskQueueAndStack;
+import cororok.circular_buffer.CircularDiskQueueAndStackTest;
+
+public class ChannelDiskWriterTest {
+	final String fileName = "data.txt";
+	final String queueFileName = "dqtest.txt";
+	final int capacity = 9;
+	final byte[] full = new byte[] { -1, 1, 2, 3, 4, 5, 6, 7, 8 };
+	final byte[] zero = new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	DiskWriter writer;
+
+	@Test
+	public void testWrite() throws IOException {
+		writer.write(full);
+
+		byte[] r0 = new byte[full.length];
+		writer.seek(0);
+		writer.read(r0);
+		assertArrayEquals(full, r0);
+
+		writer.seek(0);
+		writer.write(zero);
+
+		byte[] r1 = new byte[full.length];
+		writer.seek(0);
+		writer.read(r1);
+		assertArrayEquals(zero, r1);
+	}
+
+	@Test
+	public void testReadWrite2Size() throws IOException {
+		resetFull();
+		writer.writeStorage(new long[] { 2, 5 }, new byte[] { 11, 12, 13 });
+		byte[] r = readAll();
+		assertArrayEquals(new byte[] { -1, 1, 11, 12, 13, 5, 6, 7, 8 }, r);
+		assertArrayEquals(new byte[] { 11, 12, 13 }, writer.readStorage(new long[] { 2, 5 }));
+
+		resetFull();
+		writer.writeStorage(new long[] { 0, 1 }, new byte[] { 21 });
+		byte[] r1 = readAll();
+		assertArrayEquals(new byte[] { 21, 1, 2, 3, 4, 5, 6, 7, 8 }, r1);
+		assertArrayEquals(new byte[] { 21 }, writer.readStorage(new long[] { 0, 1 }));
+
+		resetFull();
+		writer.writeStorage(new long[] { 0, 3 }, new byte[] { 21, 22, 23 });
+		byte[] r2 = readAll();
+		assertArrayEquals(new byte[] { 21, 22, 23, 3, 4, 5, 6, 7, 8 }, r2);
+		assertArrayEquals(new byte[] { 21, 22, 23 }, writer.readStorage(new long[] { 0, 3 }));
+
+		resetFull();
+		writer.writeStorage(new long[] { 8, 9 }, new byte[] { 30 });
+		byte[] r3 = readAll();
+		assertArrayEquals(new byte[] { -1, 1, 2, 3, 4, 5, 6, 7, 30 }, r3);
+		assertArrayEquals(new byte[] { 30 }, writer.readStorage(new long[] { 8, 9 }));
+
+		resetFull();
+		writer.writeStorage(new long[] { 7, 9 }, new byte[] { 31, 32 });
+		byte[] r4 = readAll();
+		assertArrayEquals(new byte[] { -1, 1, 2, 3, 4, 5, 6, 31, 32 }, r4);
+		assertArrayEquals(new byte[] { 31, 32 }, writer.readStorage(new long[] { 7, 9 }));
+	}
+
+	@Test
+	public void testReadWrite4Size() throws IOException {
+		resetFull();
+		writer.writeStorage(new long[] { 2, 5, 5, 7 }, new byte[] { 11, 12, 13, 21, 22 });
+		byte[] r = readAll();
+		assertArrayEquals(new byte[] { -1, 1, 11, 12, 13, 21, 22, 7, 8 }, r);
+		assertArrayEquals(new byte[] { 11, 12, 13, 21, 22 }, writer.readStorage(new long[] { 2, 5, 5, 7 }));
+
+		resetFull();
+		writer.writeStorage(new long[] { 0, 1, 1, 2 }, new byte[] { 21, 22 });
+		byte[] r1 = readAll();
+		assertArrayEquals(new byte[] { 21, 22, 2, 3, 4, 5, 6, 7, 8 }, r1);
+		assertArrayEquals(new byte[] { 21, 22 }, writer.readStorage(new long[] { 0, 1, 1, 2 }));
+
+		resetFull();
+		writer.writeStorage(new long[] { 0, 3, 3, 5 }, new byte[] { 21, 22, 23, 30, 31 });
+		byte[] r2 = readAll();
+		assertArrayEquals(new byte[] { 21, 22, 23, 30, 31, 5, 6, 7, 8 }, r2);
+		assertArrayEquals(new byte[] { 21, 22, 23, 30, 31 }, writer.readStorage(new long[] { 0, 3, 3, 5 }));
+
+		resetFull();
+		writer.writeStorage(new long[] { 8, 9, 0, 2 }, new byte[] { 30, 40, 41 });
+		byte[] r3 = readAll();
+		assertArrayEquals(new byte[] { 40, 41, 2, 3, 4, 5, 6, 7, 30 }, r3);
+		assertArrayEquals(new byte[] { 30, 40, 41 }, writer.readStorage(new long[] { 8, 9, 0, 2 }));
+
+		resetFull();
+		writer.writeStorage(new long[] { 7, 9, 0, 1 }, new byte[] { 31, 32, 41 });
+		byte[] r4 = readAll();
+		assertArrayEquals(new byte[] { 41, 1, 2, 3, 4, 5, 6, 31, 32 }, r4);
+		assertArrayEquals(new byte[] { 31, 32, 41 }, writer.readStorage(new long[] { 7, 9, 0, 1 }));
+	}
+
+	@Test
+	public void testWriteTwo() throws IOException {
+		resetFull();
+		// contiguous, gathering write
+		writer.writeStorage(new long[] { 1, 3 }, new byte[] { 11, 12 }, new long[] { 3, 6 }, new byte[] { 21, 22, 23 });
+		assertArrayEquals(new byte[] { -1, 11, 12, 21, 22, 23, 6, 7, 8 }, readAll());
+
+		resetFull();
+		// not contiguous
+		writer.writeStorage(new long[] { 7, 9 }, new byte[] { 11, 12 }, new long[] { 0, 2 }, new byte[] { 21, 22 });
+		assertArrayEquals(new byte[] { 21, 22, 2, 3, 4, 5, 6, 11, 12 }, readAll());
+
+		resetFull();
+		// wrapped
+		writer.writeStorage(new long[] { 0, 1 }, new byte[] { 11 }, new long[] { 8, 9, 1, 3 },
+				new byte[] { 21, 22, 23 });
+		assertArrayEquals(new byte[] { 11, 22, 23, 3, 4, 5, 6, 7, 21 }, readAll());
+	}
+
+	@Test
+	public void testReadInto() throws IOException {
+		resetFull();
+		byte[] dst = new byte[4];
+		writer.readStorage(new long[] { 1, 5 }, dst);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, dst);
+
+		writer.readStorage(new long[] { 7, 9, 0, 2 }, dst);
+		assertArrayEquals(new byte[] { 7, 8, -1, 1 }, dst);
+	}
+
+	@Test
+	public void testReadIntoBuffer() throws IOException {
+		resetFull();
+		for (ByteBuffer dst : new ByteBuffer[] { ByteBuffer.allocate(5), ByteBuffer.allocateDirect(5) }) {
+			dst.put((byte) 100);
+			writer.readStorage(new long[] { 7, 9, 0, 2 }, dst);
+			assertEquals(5, dst.position());
+
+			byte[] result = new byte[5];
+			dst.flip();
+			dst.get(result);
+			assertArrayEquals(new byte[] { 100, 7, 8, -1, 1 }, result);
+		}
+	}
+
+	private void resetFull() throws IOException {
+		writer.seek(0);
+		writer.write(full);
+	}
+
+	private byte[] readAll() throws IOException {
+		byte[] r = new byte[full.length];
+		writer.seek(0);
+		writer.read(r);
+		return r;
+	}
+
+	@Before
+	public void setup() throws IOException {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+		writer = new ChannelDiskWriter(new File(fileName));
+	}
+
+	@Test
+	public void testQueue() throws Exception {
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(20, queueFileName,
+				new ChannelDiskWriterFactory())) {
+			for (int i = 0; i < 10; i++) { // to be circled
+				test.addLast("abc".getBytes());
+				test.addFirst("12345".getBytes());
+				assertArrayEquals("12345".getBytes(), test.removeFirst());
+				assertArrayEquals("abc".getBytes(), test.removeFirst());
+			}
+			test.addLast("xyz".getBytes());
+		}
+
+		// reopen
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(20, queueFileName,
+				new ChannelDiskWriterFactory())) {
+			assertEquals(1, test.size());
+			assertArrayEquals("xyz".getBytes(), test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testTransfer() throws Exception {
+		CircularDiskQueueAndStackTest
+				.testTransfer(new CircularDiskQueueAndStack(100, queueFileName, new ChannelDiskWriterFactory()));
+	}
+
+	@After
+	public void clean() throws Exception {
+		writer.close();
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+		CircularDiskQueueAndStackTest.deleteFile(queueFileName);
+	}
+
+}
@@ -1,10 +1,12 @@
 package cororok.circular_buffer.storage;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.junit.After;
 import org.junit.Before;
@@ -104,6 +106,32 @@ public class DefaultDiskWriterTest {
 		assertArrayEquals(new byte[] { 31, 32, 41 }, writer.readStorage(new long[] { 7, 9, 0, 1 }));
 	}
 
+	@Test
+	public void testReadInto() throws IOException {
+		resetFull();
+		byte[] dst = new byte[4];
+		writer.readStorage(new long[] { 1, 5 }, dst);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, dst);
+
+		writer.readStorage(new long[] { 7, 9, 0, 2 }, dst);
+		assertArrayEquals(new byte[] { 7, 8, -1, 1 }, dst);
+	}
+
+	@Test
+	public void testReadIntoBuffer() throws IOException {
+		resetFull();
+		for (ByteBuffer dst : new ByteBuffer[] { ByteBuffer.allocate(5), ByteBuffer.allocateDirect(5) }) {
+			dst.put((byte) 100);
+			writer.readStorage(new long[] { 7, 9, 0, 2 }, dst);
+			assertEquals(5, dst.position());
+
+			byte[] result = new byte[5];
+			dst.flip();
+			dst.get(result);
+			assertArrayEquals(new byte[] { 100, 7, 8, -1, 1 }, result);
+		}
+	}
+
 	private void resetFull() throws IOException {
 		writer.seek(0);
 		writer.write(full);
@@ -1,6 +1,7 @@
 package cororok.circular_buffer.storage;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 
@@ -62,6 +63,36 @@ public class IndexWriterTest {
 		}
 	}
 
+	@Test
+	public void testWriteAll() throws Exception {
+		try (IndexWriter iw = new IndexWriter(new DefaultDiskWriter(indexFile))) {
+			iw.writeAll(1, 2, 3);
+			iw.force();
+			assertArrayEquals(new long[] { 1, 2, 3 }, iw.readAll());
+
+			iw.writeStartAndSize(4, 5);
+			assertArrayEquals(new long[] { 4, 5, 3 }, iw.readAll());
+		} catch (Exception e) {
+			throw e;
+		}
+	}
+
+	@Test
+	public void testSequence() throws Exception {
+		try (IndexWriter iw = new IndexWriter(new DefaultDiskWriter(indexFile))) {
+			iw.writeAll(1, 2, 3);
+			assertEquals(0, iw.readSequence()); // not saved yet
+
+			iw.writeAll(4, 5, 6, Long.MAX_VALUE);
+			assertArrayEquals(new long[] { 4, 5, 6 }, iw.readAll());
+			assertEquals(Long.MAX_VALUE, iw.readSequence());
+
+			iw.writeEndAndSize(7, 8); // keeps the sequence
+			assertArrayEquals(new long[] { 4, 8, 7 }, iw.readAll());
+			assertEquals(Long.MAX_VALUE, iw.readSequence());
+		}
+	}
+
 	@Test
 	public void testOpenClose() throws Exception {
 		IndexWriter iw = new IndexWriter(new DefaultDiskWriter(indexFile));
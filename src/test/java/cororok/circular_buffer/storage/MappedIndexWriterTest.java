@@ -0,0 +1,79 @@
+package cororok.circular_buffer.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cororok.circular_buffer.CircularDiskQueueAndStackTest;
+
+public class MappedIndexWriterTest {
+
+	final File indexFile = new File("test.index");
+
+	@Test
+	public void testReadWrite() throws Exception {
+		try (IndexWriter iw = new MappedIndexWriter(indexFile)) {
+			assertArrayEquals(new long[] { 0, 0, 0 }, iw.readAll());
+
+			iw.writeStartAndSize(1, 2);
+			assertArrayEquals(new long[] { 1, 2, 0 }, iw.readAll());
+
+			iw.writeEndAndSize(3, 4);
+			assertArrayEquals(new long[] { 1, 4, 3 }, iw.readAll());
+
+			iw.writeAll(Long.MAX_VALUE, Long.MAX_VALUE - 1, Long.MAX_VALUE - 2);
+			iw.force();
+			assertArrayEquals(new long[] { Long.MAX_VALUE, Long.MAX_VALUE - 1, Long.MAX_VALUE - 2 }, iw.readAll());
+		}
+
+		// open again
+		try (IndexWriter iw = new MappedIndexWriter(indexFile)) {
+			assertArrayEquals(new long[] { Long.MAX_VALUE, Long.MAX_VALUE - 1, Long.MAX_VALUE - 2 }, iw.readAll());
+		}
+	}
+
+	@Test
+	public void testTornSlot() throws Exception {
+		try (IndexWriter iw = new MappedIndexWriter(indexFile)) {
+			iw.writeAll(1, 2, 3, 10); // version 2, the first slot
+			iw.writeAll(4, 5, 6, 20); // version 3, the second slot
+		}
+
+		// as if it died while writing the second slot
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+			raf.seek(MappedIndexWriter.SLOT_OFFSETS[1] + 16);
+			raf.writeLong(7);
+		}
+
+		try (IndexWriter iw = new MappedIndexWriter(indexFile)) {
+			assertArrayEquals(new long[] { 1, 2, 3 }, iw.readAll()); // the one before
+			assertEquals(10, iw.readSequence());
+			iw.writeAll(7, 8, 9); // overwrites the broken one
+			assertArrayEquals(new long[] { 7, 8, 9 }, iw.readAll());
+		}
+	}
+
+	@Test
+	public void testOpenIndexWriter() throws Exception {
+		try (IndexWriter iw = new IndexWriter(new DefaultDiskWriter(indexFile))) {
+			iw.writeAll(1, 2, 3);
+		}
+
+		try (IndexWriter iw = new MappedIndexWriter(indexFile)) {
+			assertArrayEquals(new long[] { 1, 2, 3 }, iw.readAll());
+		}
+		assertEquals(MappedIndexWriter.PAGE_SIZE, indexFile.length());
+	}
+
+	@Before
+	@After
+	public void after() {
+		CircularDiskQueueAndStackTest.deleteFile(indexFile);
+	}
+}
@@ -0,0 +1,95 @@
+package cororok.circular_buffer.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cororok.circular_buffer.CircularDiskQueueAndStackTest;
+
+public class MappedMemoryTest {
+	final String fileName = "memorytest.txt";
+	final int size = 64;
+
+	RandomAccessFile file;
+
+	@Test
+	public void testUnsafe() throws IOException {
+		assertTrue(MappedMemory.UnsafeHandles.AVAILABLE);
+		MappedMemory memory = new MappedMemory(file.getChannel(), size, true);
+		assertTrue(memory.isAtomicAcrossProcesses());
+		testOperations(memory);
+	}
+
+	@Test
+	public void testFallback() throws IOException {
+		MappedMemory memory = new MappedMemory(file.getChannel(), size, false);
+		assertFalse(memory.isAtomicAcrossProcesses());
+		testOperations(memory);
+	}
+
+	private void testOperations(MappedMemory memory) {
+		memory.putLongVolatile(0, 10);
+		assertEquals(10, memory.getLongVolatile(0));
+		memory.putLongOrdered(0, 11);
+		assertEquals(11, memory.getLongVolatile(0));
+		assertTrue(memory.compareAndSwapLong(0, 11, 12));
+		assertFalse(memory.compareAndSwapLong(0, 11, 13));
+		assertEquals(12, memory.getAndAddLong(0, 3));
+		assertEquals(15, memory.getLongVolatile(0));
+
+		memory.putIntOrdered(8, -1);
+		assertEquals(-1, memory.getIntVolatile(8));
+		assertTrue(memory.compareAndSwapInt(8, -1, 5));
+		assertFalse(memory.compareAndSwapInt(8, -1, 6));
+		assertEquals(5, memory.getIntVolatile(8));
+
+		byte[] src = new byte[] { 1, 2, 3, 4, 5 };
+		memory.put(20, src, 1, 3);
+		byte[] dst = new byte[5];
+		memory.get(19, dst, 0, 5);
+		assertArrayEquals(new byte[] { 0, 2, 3, 4, 0 }, dst);
+
+		memory.clear(20, 2);
+		memory.get(19, dst, 0, 5);
+		assertArrayEquals(new byte[] { 0, 0, 0, 4, 0 }, dst);
+
+		try {
+			memory.getLongVolatile(size - 4);
+			fail("out of the region");
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testSameFile() throws IOException {
+		// both of them read the file in the native byte order
+		MappedMemory unsafe = new MappedMemory(file.getChannel(), size, true);
+		MappedMemory fallback = new MappedMemory(file.getChannel(), size, false);
+
+		unsafe.putLongVolatile(0, 0x0102030405060708L);
+		assertEquals(0x0102030405060708L, fallback.getLongVolatile(0));
+		fallback.putIntOrdered(8, 0x01020304);
+		assertEquals(0x01020304, unsafe.getIntVolatile(8));
+	}
+
+	@Before
+	public void setup() throws IOException {
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+		file = new RandomAccessFile(fileName, "rw");
+	}
+
+	@After
+	public void clean() throws Exception {
+		file.close();
+		CircularDiskQueueAndStackTest.deleteFile(fileName);
+	}
+}
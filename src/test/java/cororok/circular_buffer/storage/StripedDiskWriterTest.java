@@ -0,0 +1,143 @@
+package cororok.circular_buffer.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cororok.circular_buffer.CircularDiskQueueAndStack;
+import cororok.circular_buffer.CircularDiskQueueAndStackTest;
+
+public class StripedDiskWriterTest {
+	final String fileName = "data.txt";
+	final String queueFileName = "dqtest.txt";
+	final File[] dirs = new File[] { new File("stripe0"), new File("stripe1") };
+	final int stripeSize = 3;
+	final byte[] full = new byte[] { -1, 1, 2, 3, 4, 5, 6, 7, 8 };
+
+	DiskWriter writer;
+
+	@Test
+	public void testStripes() throws IOException {
+		writer.write(full);
+
+		// 0,1,2 and 6,7,8 in the first, 3,4,5 in the second
+		assertArrayEquals(new byte[] { -1, 1, 2, 6, 7, 8 }, readDevice(0, 6));
+		assertArrayEquals(new byte[] { 3, 4, 5 }, readDevice(1, 3));
+
+		byte[] r = new byte[full.length];
+		writer.seek(0);
+		assertEquals(full.length, writer.read(r));
+		assertArrayEquals(full, r);
+
+		writer.writeStorage(new long[] { 8, 9, 0, 4 }, new byte[] { 30, 40, 41, 42, 43 });
+		assertArrayEquals(new byte[] { 30, 40, 41, 42, 43 }, writer.readStorage(new long[] { 8, 9, 0, 4 }));
+		assertArrayEquals(new byte[] { 43, 4, 5 }, readDevice(1, 3));
+	}
+
+	private byte[] readDevice(int index, int length) throws IOException {
+		try (DefaultDiskWriter device = new DefaultDiskWriter(new File(dirs[index], fileName))) {
+			byte[] result = new byte[length];
+			device.seek(StripedDiskWriter.LAYOUT_SIZE);
+			device.read(result);
+			return result;
+		}
+	}
+
+	@Test
+	public void testQueue() throws Exception {
+		String name = new File(dirs[0], queueFileName).getPath();
+		StripedDiskWriterFactory facotry = new StripedDiskWriterFactory(dirs, 4, new DefaultDiskWriterFactory());
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(30, name, facotry)) {
+			for (int i = 0; i < 10; i++) { // to be circled
+				test.addLast("abc".getBytes());
+				test.addFirst("12345".getBytes());
+				assertArrayEquals("12345".getBytes(), test.removeFirst());
+				assertArrayEquals("abc".getBytes(), test.removeFirst());
+			}
+			test.addLast("xyz".getBytes());
+		}
+		assertEquals(true, new File(dirs[1], queueFileName).length() > StripedDiskWriter.LAYOUT_SIZE);
+		assertEquals(true, new File(dirs[0], queueFileName + ".index").exists());
+		assertEquals(false, new File(dirs[1], queueFileName + ".index").exists()); // only one
+
+		// reopen
+		try (CircularDiskQueueAndStack test = new CircularDiskQueueAndStack(30, name, facotry)) {
+			assertEquals(1, test.size());
+			assertArrayEquals("xyz".getBytes(), test.removeFirst());
+		}
+	}
+
+	@Test
+	public void testParallel() throws IOException {
+		byte[] big = new byte[100]; // many stripes of both devices
+		for (int i = 0; i < big.length; i++)
+			big[i] = (byte) i;
+		writer.seek(2);
+		writer.write(big);
+
+		byte[] r = new byte[big.length];
+		writer.seek(2);
+		assertEquals(big.length, writer.read(r));
+		assertArrayEquals(big, r);
+		assertArrayEquals(new byte[] { 0, 0, 0, 4, 5, 6 }, readDevice(0, 6)); // 0,1,2 and 6,7,8 of the logical file
+		assertArrayEquals(new byte[] { 1, 2, 3 }, readDevice(1, 3));
+
+		// it ends at the end of the device files
+		r = new byte[20];
+		writer.seek(95);
+		assertEquals(7, writer.read(r));
+	}
+
+	@Test
+	public void testLayout() throws Exception {
+		writer.write(full);
+		writer.close();
+
+		File[] reversed = new File[] { dirs[1], dirs[0] };
+		for (File[] ds : new File[][] { reversed, new File[] { dirs[0] } }) {
+			try {
+				new StripedDiskWriter(new File(fileName), ds, stripeSize, new DefaultDiskWriterFactory()).close();
+				fail("other directories");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("wrong stripe layout"));
+			}
+		}
+		try {
+			new StripedDiskWriter(new File(fileName), dirs, stripeSize + 1, new DefaultDiskWriterFactory()).close();
+			fail("another stripe size");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("wrong stripe layout"));
+		}
+
+		writer = new StripedDiskWriter(new File(fileName), dirs, stripeSize, new DefaultDiskWriterFactory());
+		byte[] r = new byte[full.length];
+		assertEquals(full.length, writer.read(r));
+		assertArrayEquals(full, r);
+	}
+
+	@Before
+	public void setup() throws IOException {
+		for (File dir : dirs)
+			dir.mkdirs();
+		writer = new StripedDiskWriter(new File(fileName), dirs, stripeSize, new DefaultDiskWriterFactory());
+	}
+
+	@After
+	public void clean() throws Exception {
+		writer.close();
+		for (File dir : dirs) {
+			CircularDiskQueueAndStackTest.deleteFile(new File(dir, fileName));
+			CircularDiskQueueAndStackTest.deleteFile(new File(dir, queueFileName).getPath());
+			CircularDiskQueueAndStackTest.deleteFile(dir);
+		}
+	}
+
+}